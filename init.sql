@@ -1,16 +1,31 @@
 -- Enable TimescaleDB
 CREATE EXTENSION IF NOT EXISTS timescaledb;
 
--- Metrics table (denormalized)
-CREATE TABLE IF NOT EXISTS metric_samples (
-    ts            TIMESTAMPTZ       NOT NULL,
+-- Series dictionary: name, type and labels stored once per series
+CREATE TABLE IF NOT EXISTS series (
+    series_id     BIGINT            PRIMARY KEY,
     metric_name   TEXT              NOT NULL,
     metric_type   TEXT              NOT NULL,
-    value         DOUBLE PRECISION,
-    sketch        BYTEA,
     labels        JSONB             NOT NULL
 );
 
+-- Series lookup by metric
+CREATE INDEX IF NOT EXISTS idx_series_metric_name
+ON series (metric_name);
+
+-- Labels index (high selectivity)
+CREATE INDEX IF NOT EXISTS idx_series_labels
+ON series
+USING GIN (labels jsonb_path_ops);
+
+-- Samples reference their series by ID
+CREATE TABLE IF NOT EXISTS metric_samples (
+    ts            TIMESTAMPTZ       NOT NULL,
+    series_id     BIGINT            NOT NULL,
+    value         DOUBLE PRECISION,
+    sketch        BYTEA
+);
+
 -- Convert to hypertable
 SELECT create_hypertable(
     'metric_samples',
@@ -18,24 +33,21 @@ SELECT create_hypertable(
     if_not_exists => TRUE
 );
 
--- Core index: metric + time
-CREATE INDEX IF NOT EXISTS idx_metric_name_ts
-ON metric_samples (metric_name, ts DESC);
+-- Core index: series + time
+CREATE INDEX IF NOT EXISTS idx_series_id_ts
+ON metric_samples (series_id, ts DESC);
 
--- Labels index (high selectivity)
-CREATE INDEX IF NOT EXISTS idx_metric_labels
-ON metric_samples
-USING GIN (labels jsonb_path_ops);
-
--- Optional metric type index
-CREATE INDEX IF NOT EXISTS idx_metric_type
-ON metric_samples (metric_type);
+-- Required by store.writeMode: UPSERT (one row per series and window) and created by
+-- the service at startup in that mode; it includes ts, as hypertable unique indexes must.
+-- Not created here: INSERT/COPY write one row per sample and would fail on duplicates.
+-- CREATE UNIQUE INDEX IF NOT EXISTS uq_series_id_ts
+-- ON metric_samples (series_id, ts);
 
 -- Enable compression
 ALTER TABLE metric_samples
 SET (
   timescaledb.compress,
-  timescaledb.compress_segmentby = 'metric_name'
+  timescaledb.compress_segmentby = 'series_id'
 );
 
 -- Compress chunks older than 7 days
@@ -55,3 +67,72 @@ SELECT set_chunk_time_interval(
     'metric_samples',
     INTERVAL '1 day'
 );
+
+-- 1m rollup: per-series sum, count and merged t-digest, maintained at flush time
+CREATE TABLE IF NOT EXISTS metric_rollup_1m (
+    bucket        TIMESTAMPTZ       NOT NULL,
+    series_id     BIGINT            NOT NULL,
+    value_sum     DOUBLE PRECISION  NOT NULL,
+    value_count   BIGINT            NOT NULL,
+    sketch        BYTEA,
+    PRIMARY KEY (series_id, bucket)
+);
+
+SELECT create_hypertable(
+    'metric_rollup_1m',
+    'bucket',
+    if_not_exists => TRUE
+);
+
+SELECT add_retention_policy(
+    'metric_rollup_1m',
+    INTERVAL '90 days'
+);
+
+-- 5m rollup: per-series sum, count and merged t-digest, maintained at flush time
+CREATE TABLE IF NOT EXISTS metric_rollup_5m (
+    bucket        TIMESTAMPTZ       NOT NULL,
+    series_id     BIGINT            NOT NULL,
+    value_sum     DOUBLE PRECISION  NOT NULL,
+    value_count   BIGINT            NOT NULL,
+    sketch        BYTEA,
+    PRIMARY KEY (series_id, bucket)
+);
+
+SELECT create_hypertable(
+    'metric_rollup_5m',
+    'bucket',
+    if_not_exists => TRUE
+);
+
+SELECT add_retention_policy(
+    'metric_rollup_5m',
+    INTERVAL '180 days'
+);
+
+-- 1h rollup: per-series sum, count and merged t-digest, maintained at flush time
+CREATE TABLE IF NOT EXISTS metric_rollup_1h (
+    bucket        TIMESTAMPTZ       NOT NULL,
+    series_id     BIGINT            NOT NULL,
+    value_sum     DOUBLE PRECISION  NOT NULL,
+    value_count   BIGINT            NOT NULL,
+    sketch        BYTEA,
+    PRIMARY KEY (series_id, bucket)
+);
+
+SELECT create_hypertable(
+    'metric_rollup_1h',
+    'bucket',
+    if_not_exists => TRUE
+);
+
+SELECT add_retention_policy(
+    'metric_rollup_1h',
+    INTERVAL '2 years'
+);
+
+-- Since when the rollup tiers hold every sample, see RollupCoverage
+CREATE TABLE IF NOT EXISTS rollup_coverage (
+    id            SMALLINT          PRIMARY KEY,
+    since         TIMESTAMPTZ       NOT NULL
+);
@@ -0,0 +1,220 @@
+-- Migrates a database created by the original init.sql (labels, metric name and type
+-- on every metric_samples row) to the current layout: a series dictionary, slim
+-- metric_samples segmented by series_id, and the rollup tables.
+--
+-- Stop every service instance first, then run once:
+--   psql -v ON_ERROR_STOP=1 -f migrate_series.sql
+--
+-- Series IDs are computed here exactly as SeriesRegistry#seriesId does, so the service
+-- keeps writing to the migrated series instead of creating a second row per series.
+-- Label keys are ordered by code point, which matches Java's String#compareTo unless a
+-- key mixes characters above U+FFFF with characters from U+E000 to U+FFFF. Such a
+-- series, or one with non-string label values written differently by Jackson, only gets
+-- a second series row once the service runs again; queries resolve both through the
+-- labels.
+--
+-- Everything runs in one transaction. All legacy rows are rewritten, so expect it to
+-- take about as long as a full COPY of metric_samples.
+
+BEGIN;
+
+DO $$
+BEGIN
+    IF NOT EXISTS (
+        SELECT 1 FROM information_schema.columns
+        WHERE table_name = 'metric_samples' AND column_name = 'labels'
+    ) THEN
+        RAISE EXCEPTION 'metric_samples is not in the legacy layout, nothing to migrate';
+    END IF;
+END
+$$;
+
+-- (a * b) mod 2^64, as Java's long multiplication wraps
+CREATE FUNCTION pg_temp.mul64(a BIGINT, b BIGINT) RETURNS BIGINT
+LANGUAGE sql IMMUTABLE AS $$
+    SELECT (CASE WHEN p >= 9223372036854775808 THEN p - 18446744073709551616 ELSE p END)::BIGINT
+    FROM (
+        SELECT mod(
+            (CASE WHEN a < 0 THEN a + 18446744073709551616 ELSE a END)::NUMERIC
+          * (CASE WHEN b < 0 THEN b + 18446744073709551616 ELSE b END)::NUMERIC,
+            18446744073709551616) AS p
+    ) product
+$$;
+
+-- FNV-1a 64 over the UTF-16 code units of value, preceded by their count
+CREATE FUNCTION pg_temp.fnv(h BIGINT, value TEXT) RETURNS BIGINT
+LANGUAGE plpgsql IMMUTABLE AS $$
+DECLARE
+    prime CONSTANT BIGINT := 1099511628211; -- 0x100000001b3
+    units INT[] := '{}';
+    cp INT;
+    unit INT;
+BEGIN
+    FOR i IN 1 .. length(value) LOOP
+        cp := ascii(substr(value, i, 1));
+        IF cp > 65535 THEN
+            units := units || (55296 + ((cp - 65536) >> 10)) || (56320 + ((cp - 65536) & 1023));
+        ELSE
+            units := units || cp;
+        END IF;
+    END LOOP;
+
+    h := pg_temp.mul64(h # cardinality(units), prime);
+    FOREACH unit IN ARRAY units LOOP
+        h := pg_temp.mul64(h # unit, prime);
+    END LOOP;
+    RETURN h;
+END
+$$;
+
+CREATE FUNCTION pg_temp.series_id(metric_name TEXT, labels JSONB) RETURNS BIGINT
+LANGUAGE plpgsql IMMUTABLE AS $$
+DECLARE
+    h BIGINT := -3750763034362895579; -- 0xcbf29ce484222325
+    label RECORD;
+BEGIN
+    h := pg_temp.fnv(h, metric_name);
+    FOR label IN SELECT key, value FROM jsonb_each_text(labels) ORDER BY key COLLATE "C" LOOP
+        h := pg_temp.fnv(h, label.key);
+        h := pg_temp.fnv(h, coalesce(label.value, 'null'));
+    END LOOP;
+
+    -- murmur3 fmix64; the mask makes >> a logical shift
+    h := h # ((h >> 33) & 2147483647);
+    h := pg_temp.mul64(h, -49064778989728563); -- 0xff51afd7ed558ccd
+    h := h # ((h >> 33) & 2147483647);
+    h := pg_temp.mul64(h, -4265267296055464877); -- 0xc4ceb9fe1a85ec53
+    h := h # ((h >> 33) & 2147483647);
+    RETURN h;
+END
+$$;
+
+-- Keep the legacy rows aside; its policies would otherwise keep running on it
+ALTER TABLE metric_samples RENAME TO metric_samples_legacy;
+SELECT remove_compression_policy('metric_samples_legacy', if_exists => TRUE);
+SELECT remove_retention_policy('metric_samples_legacy', if_exists => TRUE);
+
+-- Series dictionary, as in init.sql
+CREATE TABLE IF NOT EXISTS series (
+    series_id     BIGINT            PRIMARY KEY,
+    metric_name   TEXT              NOT NULL,
+    metric_type   TEXT              NOT NULL,
+    labels        JSONB             NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_series_metric_name
+ON series (metric_name);
+
+CREATE INDEX IF NOT EXISTS idx_series_labels
+ON series
+USING GIN (labels jsonb_path_ops);
+
+-- One row per distinct series; jsonb equality ignores key order
+CREATE TEMPORARY TABLE legacy_series ON COMMIT DROP AS
+SELECT pg_temp.series_id(metric_name, labels) AS series_id, metric_name, metric_type, labels
+FROM (
+    SELECT metric_name, labels, min(metric_type) AS metric_type
+    FROM metric_samples_legacy
+    GROUP BY metric_name, labels
+) distinct_series;
+
+INSERT INTO series (series_id, metric_name, metric_type, labels)
+SELECT series_id, metric_name, metric_type, labels
+FROM legacy_series
+ON CONFLICT (series_id) DO NOTHING;
+
+-- Samples table, as in init.sql
+CREATE TABLE metric_samples (
+    ts            TIMESTAMPTZ       NOT NULL,
+    series_id     BIGINT            NOT NULL,
+    value         DOUBLE PRECISION,
+    sketch        BYTEA
+);
+
+SELECT create_hypertable(
+    'metric_samples',
+    'ts',
+    chunk_time_interval => INTERVAL '1 day'
+);
+
+CREATE INDEX IF NOT EXISTS idx_series_id_ts
+ON metric_samples (series_id, ts DESC);
+
+INSERT INTO metric_samples (ts, series_id, value, sketch)
+SELECT l.ts, s.series_id, l.value, l.sketch
+FROM metric_samples_legacy l
+JOIN legacy_series s ON s.metric_name = l.metric_name AND s.labels = l.labels;
+
+DO $$
+DECLARE
+    legacy BIGINT;
+    migrated BIGINT;
+BEGIN
+    SELECT count(*) INTO legacy FROM metric_samples_legacy;
+    SELECT count(*) INTO migrated FROM metric_samples;
+    IF legacy <> migrated THEN
+        RAISE EXCEPTION 'migrated % of % samples, rolling back', migrated, legacy;
+    END IF;
+    RAISE NOTICE 'migrated % samples of % series', migrated, (SELECT count(*) FROM legacy_series);
+END
+$$;
+
+-- Compressed after the copy, so older chunks are compressed by the policy's next run
+ALTER TABLE metric_samples
+SET (
+  timescaledb.compress,
+  timescaledb.compress_segmentby = 'series_id'
+);
+
+SELECT add_compression_policy(
+    'metric_samples',
+    INTERVAL '7 days'
+);
+
+SELECT add_retention_policy(
+    'metric_samples',
+    INTERVAL '90 days'
+);
+
+DROP TABLE metric_samples_legacy;
+
+-- Rollup tables, as in init.sql; store.rollup.enabled stays off until enabled
+CREATE TABLE IF NOT EXISTS metric_rollup_1m (
+    bucket        TIMESTAMPTZ       NOT NULL,
+    series_id     BIGINT            NOT NULL,
+    value_sum     DOUBLE PRECISION  NOT NULL,
+    value_count   BIGINT            NOT NULL,
+    sketch        BYTEA,
+    PRIMARY KEY (series_id, bucket)
+);
+SELECT create_hypertable('metric_rollup_1m', 'bucket', if_not_exists => TRUE);
+SELECT add_retention_policy('metric_rollup_1m', INTERVAL '90 days', if_not_exists => TRUE);
+
+CREATE TABLE IF NOT EXISTS metric_rollup_5m (
+    bucket        TIMESTAMPTZ       NOT NULL,
+    series_id     BIGINT            NOT NULL,
+    value_sum     DOUBLE PRECISION  NOT NULL,
+    value_count   BIGINT            NOT NULL,
+    sketch        BYTEA,
+    PRIMARY KEY (series_id, bucket)
+);
+SELECT create_hypertable('metric_rollup_5m', 'bucket', if_not_exists => TRUE);
+SELECT add_retention_policy('metric_rollup_5m', INTERVAL '180 days', if_not_exists => TRUE);
+
+CREATE TABLE IF NOT EXISTS metric_rollup_1h (
+    bucket        TIMESTAMPTZ       NOT NULL,
+    series_id     BIGINT            NOT NULL,
+    value_sum     DOUBLE PRECISION  NOT NULL,
+    value_count   BIGINT            NOT NULL,
+    sketch        BYTEA,
+    PRIMARY KEY (series_id, bucket)
+);
+SELECT create_hypertable('metric_rollup_1h', 'bucket', if_not_exists => TRUE);
+SELECT add_retention_policy('metric_rollup_1h', INTERVAL '2 years', if_not_exists => TRUE);
+
+CREATE TABLE IF NOT EXISTS rollup_coverage (
+    id            SMALLINT          PRIMARY KEY,
+    since         TIMESTAMPTZ       NOT NULL
+);
+
+COMMIT;
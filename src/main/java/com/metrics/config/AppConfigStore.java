@@ -1,5 +1,8 @@
 package com.metrics.config;
 
+import com.metrics.models.common.CardinalityFallbackPolicy;
+import com.metrics.models.common.CardinalityMode;
+import com.metrics.models.common.StoreWriteMode;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.beans.factory.annotation.Value;
@@ -18,10 +21,124 @@ public class AppConfigStore {
     @Value("${store.flushInterval}")
     public Duration flushInterval;
 
+    @Value("${store.bufferCapacity}")
+    public int storeBufferCapacity;
+
+    @Value("${store.lanes}")
+    public int storeLanes;
+
+    @Value("${store.writeMode}")
+    public StoreWriteMode storeWriteMode;
+
+    @Value("${store.ackAfterFlush}")
+    public boolean storeAckAfterFlush;
+
+    @Value("${store.seriesCacheSize}")
+    public int storeSeriesCacheSize;
+
+    @Value("${store.rollup.enabled}")
+    public boolean rollupEnabled;
+
+    @Value("${query.cache.enabled}")
+    public boolean queryCacheEnabled;
+
+    @Value("${query.cache.maxEntries}")
+    public int queryCacheMaxEntries;
+
+    @Value("${query.cache.immutableAfter}")
+    public Duration queryCacheImmutableAfter;
+
+    @Value("${query.cache.redis.enabled}")
+    public boolean queryCacheRedisEnabled;
+
+    @Value("${query.cache.redis.ttl}")
+    public Duration queryCacheRedisTtl;
+
+    @Value("${query.hourlyStep.enabled}")
+    public boolean queryHourlyStepEnabled;
+
+    @Value("${query.merge.parallelism}")
+    public int queryMergeParallelism;
+
+    @Value("${query.batch.parallelism}")
+    public int queryBatchParallelism;
+
+    @Value("${query.batch.maxQueries}")
+    public int queryBatchMaxQueries;
+
+    @Value("${query.groupBy.maxGroups}")
+    public int queryGroupByMaxGroups;
+
+    @Value("${query.governor.maxCost}")
+    public long queryGovernorMaxCost;
+
+    @Value("${query.governor.maxPoints}")
+    public long queryGovernorMaxPoints;
+
+    @Value("${query.governor.sampleInterval}")
+    public Duration queryGovernorSampleInterval;
+
+    @Value("${query.governor.maxConcurrent}")
+    public int queryGovernorMaxConcurrent;
+
+    @Value("${query.governor.maxConcurrentPerClient}")
+    public int queryGovernorMaxConcurrentPerClient;
+
+    @Value("${query.governor.maxQueued}")
+    public int queryGovernorMaxQueued;
+
+    @Value("${query.governor.queueTimeout}")
+    public Duration queryGovernorQueueTimeout;
+
+    @Value("${query.governor.statementTimeout}")
+    public Duration queryGovernorStatementTimeout;
+
+    @Value("${store.spool.enabled}")
+    public boolean storeSpoolEnabled;
+
+    @Value("${store.spool.directory}")
+    public String storeSpoolDirectory;
+
+    @Value("${store.spool.segmentSize}")
+    public int storeSpoolSegmentSize;
+
     @Value("${check.labelSizeLimit}")
     public int labelSizeLimit;
 
     @Value("${check.metricSeriesLimit}")
     public int metricSeriesLimit;
 
+    @Value("${check.cardinality.mode}")
+    public CardinalityMode cardinalityMode;
+
+    @Value("${check.cardinality.bloomExpectedInsertions}")
+    public long cardinalityBloomExpectedInsertions;
+
+    @Value("${check.cardinality.bloomFalsePositiveRate}")
+    public double cardinalityBloomFalsePositiveRate;
+
+    @Value("${check.cardinality.cacheSize}")
+    public int cardinalityCacheSize;
+
+    @Value("${check.cardinality.fallback}")
+    public CardinalityFallbackPolicy cardinalityFallback;
+
+    @Value("${check.batch.maxPollRecords}")
+    public int batchMaxPollRecords;
+
+    @Value("${check.batch.concurrency}")
+    public int batchConcurrency;
+
+    @Value("${check.window.enabled}")
+    public boolean windowEnabled;
+
+    @Value("${check.window.allowedLateness}")
+    public Duration windowAllowedLateness;
+
+    @Value("${check.window.idleTimeout}")
+    public Duration windowIdleTimeout;
+
+    @Value("${check.window.maxClockSkew}")
+    public Duration windowMaxClockSkew;
+
 }
@@ -1,8 +1,111 @@
 package com.metrics.config;
 
+import com.metrics.services.check.CheckOffsetCommitter;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.springframework.boot.autoconfigure.kafka.ConcurrentKafkaListenerContainerFactoryConfigurer;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+
+import java.util.Collection;
+import java.util.Properties;
 
 @Configuration
 public class KafkaConfig {
     // Rely on Spring Boot auto-config for KafkaTemplate
+
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<Object, Object> checkListenerContainerFactory(
+            ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
+            ConsumerFactory<Object, Object> consumerFactory,
+            AppConfigStore appConfigStore,
+            CheckOffsetCommitter checkOffsetCommitter
+    ) {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        configurer.configure(factory, consumerFactory);
+        configureWindowCommits(factory, appConfigStore, checkOffsetCommitter);
+        return factory;
+    }
+
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<Object, Object> checkBatchListenerContainerFactory(
+            ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
+            ConsumerFactory<Object, Object> consumerFactory,
+            AppConfigStore appConfigStore,
+            CheckOffsetCommitter checkOffsetCommitter
+    ) {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        configurer.configure(factory, consumerFactory);
+        configureWindowCommits(factory, appConfigStore, checkOffsetCommitter);
+
+        factory.setBatchListener(true);
+        factory.setConcurrency(appConfigStore.getBatchConcurrency());
+
+        Properties overrides = new Properties();
+        overrides.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, String.valueOf(appConfigStore.getBatchMaxPollRecords()));
+        overrides.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        factory.getContainerProperties().setKafkaConsumerProperties(overrides);
+
+        return factory;
+    }
+
+    /**
+     * Store listener factory; values arrive as bytes so both the JSON and the binary
+     * {@code metrics-processed} encodings can be decoded.
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<Object, Object> storeListenerContainerFactory(
+            ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
+            ConsumerFactory<Object, Object> consumerFactory
+    ) {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        configurer.configure(factory, consumerFactory);
+
+        Properties overrides = new Properties();
+        overrides.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        factory.getContainerProperties().setKafkaConsumerProperties(overrides);
+
+        // StoreConsumer decides when a record is safe to commit (see StoreAckTracker)
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+
+        // A record the error handler gives up on must not commit past records still
+        // buffered in a writer lane; the next stored prefix covers it instead
+        DefaultErrorHandler errorHandler = new DefaultErrorHandler();
+        errorHandler.setAckAfterHandle(false);
+        factory.setCommonErrorHandler(errorHandler);
+
+        return factory;
+    }
+
+    /**
+     * With the window store, check offsets are committed by {@link CheckOffsetCommitter}
+     * only behind windows that were published. The error handler must not commit a
+     * skipped record either, since that would cover records of still open windows.
+     */
+    private static void configureWindowCommits(
+            ConcurrentKafkaListenerContainerFactory<Object, Object> factory,
+            AppConfigStore appConfigStore,
+            CheckOffsetCommitter checkOffsetCommitter
+    ) {
+        if (!appConfigStore.isWindowEnabled()) return;
+
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.getContainerProperties().setConsumerRebalanceListener(new ConsumerAwareRebalanceListener() {
+            @Override
+            public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+                checkOffsetCommitter.revoked(consumer, partitions);
+            }
+        });
+
+        DefaultErrorHandler errorHandler = new DefaultErrorHandler();
+        errorHandler.setAckAfterHandle(false);
+        factory.setCommonErrorHandler(errorHandler);
+    }
 }
@@ -0,0 +1,35 @@
+package com.metrics.config;
+
+import com.metrics.models.common.MessageEncoding;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "publisher")
+public class PublisherProperties {
+
+    /**
+     * Value encoding per topic; topics not listed are published as JSON.
+     */
+    private Map<String, MessageEncoding> encoding = new HashMap<>();
+
+    /**
+     * Upper bound on serialized bytes sent but not yet acknowledged by the broker.
+     */
+    private int maxInFlightBytes = 32 * 1024 * 1024;
+
+    /**
+     * How long a publish waits for in-flight capacity before failing.
+     */
+    private Duration backpressureTimeout = Duration.ofSeconds(30);
+
+    public MessageEncoding encodingFor(String topic) {
+        return encoding.getOrDefault(topic, MessageEncoding.JSON);
+    }
+}
@@ -9,67 +9,183 @@ public final class Constants {
     public static final class KafkaConstants {
         public static final String METRICS_RAW_TOPIC = "metrics-raw";
         public static final String METRICS_PROCESSED_TOPIC = "metrics-processed";
+        public static final String METRICS_PROCESSED_DLT_TOPIC = "metrics-processed-dlt";
+        public static final String METRICS_STORE_LISTENER_ID = "metrics-store";
     }
 
     public static final class SqlConstants {
 
+        // Series lookups take the label filter as %s: empty, or LABEL_FILTER_SQL. Without a
+        // filter the statement has no jsonb predicate at all, so the planner never weighs
+        // the GIN index against idx_series_metric_name.
+        public static final String SERIES_SQL = """
+        SELECT series_id
+        FROM series
+        WHERE metric_name = ?%s
+        """;
+
+        public static final String SERIES_LABELS_SQL = """
+        SELECT series_id, labels::text AS labels
+        FROM series
+        WHERE metric_name = ?%s
+        """;
+
+        public static final String LABEL_FILTER_SQL = "\n  AND labels @> ?::jsonb";
+
+        // Sample statements are rendered per shape by QuerySqlBuilder: %1$s is the
+        // time_bucket expression with the step inlined, %2$s the rollup table and %3$d the
+        // step in seconds. All of them bind (series IDs, from, to).
         public static final String SUM_SQL = """
         SELECT
-          to_timestamp(
-            floor(extract(epoch from ts) / ?) * ?
-          ) AS bucket_ts,
+          extract(epoch from %1$s)::bigint AS bucket_epoch,
           SUM(value) AS value
         FROM metric_samples
-        WHERE metric_name = ?
+        WHERE series_id = ANY(?)
           AND ts >= ?
-          AND ts <= ?
-          AND (?::jsonb IS NULL OR labels @> ?::jsonb)
-        GROUP BY bucket_ts
-        ORDER BY bucket_ts
+          AND ts < ?
+        GROUP BY bucket_epoch
+        ORDER BY bucket_epoch
         """;
 
         public static final String AVG_SQL = """
         SELECT
-          to_timestamp(
-            floor(extract(epoch from ts) / ?) * ?
-          ) AS bucket_ts,
+          extract(epoch from %1$s)::bigint AS bucket_epoch,
           AVG(value) AS value
         FROM metric_samples
-        WHERE metric_name = ?
+        WHERE series_id = ANY(?)
           AND ts >= ?
-          AND ts <= ?
-          AND (?::jsonb IS NULL OR labels @> ?::jsonb)
-        GROUP BY bucket_ts
-        ORDER BY bucket_ts
+          AND ts < ?
+        GROUP BY bucket_epoch
+        ORDER BY bucket_epoch
         """;
 
         public static final String RATE_SQL = """
         SELECT
-          to_timestamp(
-            floor(extract(epoch from ts) / ?) * ?
-          ) AS bucket_ts,
-          SUM(value) / ? AS value
+          extract(epoch from %1$s)::bigint AS bucket_epoch,
+          SUM(value) / %3$d AS value
         FROM metric_samples
-        WHERE metric_name = ?
+        WHERE series_id = ANY(?)
           AND ts >= ?
-          AND ts <= ?
-          AND (?::jsonb IS NULL OR labels @> ?::jsonb)
-        GROUP BY bucket_ts
-        ORDER BY bucket_ts
+          AND ts < ?
+        GROUP BY bucket_epoch
+        ORDER BY bucket_epoch
         """;
 
         public static final String P95_SQL = """
         SELECT
-          to_timestamp(
-            floor(extract(epoch from ts) / ?) * ?
-          ) AS bucket_ts,
+          extract(epoch from %1$s)::bigint AS bucket_epoch,
+          sketch
+        FROM metric_samples
+        WHERE series_id = ANY(?)
+          AND ts >= ?
+          AND ts < ?
+        ORDER BY bucket_epoch
+        """;
+
+        public static final String ROLLUP_SUM_SQL = """
+        SELECT
+          extract(epoch from %1$s)::bigint AS bucket_epoch,
+          SUM(value_sum) AS value
+        FROM %2$s
+        WHERE series_id = ANY(?)
+          AND bucket >= ?
+          AND bucket < ?
+        GROUP BY bucket_epoch
+        ORDER BY bucket_epoch
+        """;
+
+        public static final String ROLLUP_AVG_SQL = """
+        SELECT
+          extract(epoch from %1$s)::bigint AS bucket_epoch,
+          SUM(value_sum) / NULLIF(SUM(value_count), 0) AS value
+        FROM %2$s
+        WHERE series_id = ANY(?)
+          AND bucket >= ?
+          AND bucket < ?
+        GROUP BY bucket_epoch
+        ORDER BY bucket_epoch
+        """;
+
+        public static final String ROLLUP_RATE_SQL = """
+        SELECT
+          extract(epoch from %1$s)::bigint AS bucket_epoch,
+          SUM(value_sum) / %3$d AS value
+        FROM %2$s
+        WHERE series_id = ANY(?)
+          AND bucket >= ?
+          AND bucket < ?
+        GROUP BY bucket_epoch
+        ORDER BY bucket_epoch
+        """;
+
+        public static final String ROLLUP_P95_SQL = """
+        SELECT
+          extract(epoch from %1$s)::bigint AS bucket_epoch,
+          sketch
+        FROM %2$s
+        WHERE series_id = ANY(?)
+          AND bucket >= ?
+          AND bucket < ?
+        ORDER BY bucket_epoch
+        """;
+
+        // Shared scans for /query/batch: per-series partial aggregates, combined per query
+        // in memory. The *_SKETCH variants return one row per sample or rollup row so that
+        // quantile queries can merge the sketches.
+        public static final String BATCH_SCAN_SQL = """
+        SELECT
+          extract(epoch from %1$s)::bigint AS bucket_epoch,
+          series_id,
+          SUM(value) AS value_sum,
+          COUNT(value) AS value_count
+        FROM metric_samples
+        WHERE series_id = ANY(?)
+          AND ts >= ?
+          AND ts < ?
+        GROUP BY bucket_epoch, series_id
+        ORDER BY bucket_epoch
+        """;
+
+        public static final String BATCH_SCAN_SKETCH_SQL = """
+        SELECT
+          extract(epoch from %1$s)::bigint AS bucket_epoch,
+          series_id,
+          value AS value_sum,
+          1 AS value_count,
           sketch
         FROM metric_samples
-        WHERE metric_name = ?
+        WHERE series_id = ANY(?)
           AND ts >= ?
-          AND ts <= ?
-          AND (?::jsonb IS NULL OR labels @> ?::jsonb)
-        ORDER BY bucket_ts
+          AND ts < ?
+        ORDER BY bucket_epoch
+        """;
+
+        public static final String ROLLUP_BATCH_SCAN_SQL = """
+        SELECT
+          extract(epoch from %1$s)::bigint AS bucket_epoch,
+          series_id,
+          SUM(value_sum) AS value_sum,
+          SUM(value_count) AS value_count
+        FROM %2$s
+        WHERE series_id = ANY(?)
+          AND bucket >= ?
+          AND bucket < ?
+        GROUP BY bucket_epoch, series_id
+        ORDER BY bucket_epoch
+        """;
+
+        public static final String ROLLUP_BATCH_SCAN_SKETCH_SQL = """
+        SELECT
+          extract(epoch from %1$s)::bigint AS bucket_epoch,
+          series_id,
+          value_sum,
+          value_count,
+          sketch
+        FROM %2$s
+        WHERE series_id = ANY(?)
+          AND bucket >= ?
+          AND bucket < ?
+        ORDER BY bucket_epoch
         """;
     }
 
@@ -1,21 +1,53 @@
 package com.metrics.controllers;
 
 
+import com.metrics.models.query.BatchQueryRequest;
+import com.metrics.models.query.BatchQueryResponse;
 import com.metrics.models.query.QueryRequest;
 import com.metrics.models.query.QueryResponse;
+import com.metrics.services.query.BatchQueryService;
+import com.metrics.services.query.QueryGovernor;
 import com.metrics.services.query.QueryProcessingService;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import org.springframework.web.bind.annotation.*;
 
+import java.security.Principal;
+import java.util.List;
+
 @RestController
 @RequestMapping("/query")
 @RequiredArgsConstructor
 public class QueryController {
 
     private final QueryProcessingService queryProcessingService;
+    private final BatchQueryService batchQueryService;
+    private final QueryGovernor queryGovernor;
 
     @PostMapping
-    public QueryResponse query(@RequestBody QueryRequest request) {
-        return queryProcessingService.execute(request);
+    public QueryResponse query(
+            @RequestBody QueryRequest request,
+            HttpServletRequest servletRequest
+    ) {
+        long cost = queryGovernor.estimate(request);
+        return queryGovernor.run(client(servletRequest), cost, () -> queryProcessingService.execute(request));
+    }
+
+    @PostMapping("/batch")
+    public BatchQueryResponse batch(
+            @RequestBody BatchQueryRequest request,
+            HttpServletRequest servletRequest
+    ) {
+        long cost = queryGovernor.estimate(request.getQueries() == null ? List.of() : request.getQueries());
+        // A batch holds a slot for each scan it runs at once
+        return queryGovernor.run(client(servletRequest), cost, batchQueryService.concurrency(request),
+                () -> batchQueryService.execute(request));
+    }
+
+    // Per-client limits key on who the caller is, never on what it claims: the authenticated
+    // principal, or else the remote address
+    private static String client(HttpServletRequest servletRequest) {
+        Principal principal = servletRequest.getUserPrincipal();
+        return principal != null ? "user:" + principal.getName() : "addr:" + servletRequest.getRemoteAddr();
     }
 }
@@ -0,0 +1,11 @@
+package com.metrics.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidQueryException extends RuntimeException {
+    public InvalidQueryException(String reason) {
+        super(String.format("Invalid query: %s", reason));
+    }
+}
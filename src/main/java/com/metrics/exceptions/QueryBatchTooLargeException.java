@@ -0,0 +1,11 @@
+package com.metrics.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class QueryBatchTooLargeException extends RuntimeException {
+    public QueryBatchTooLargeException(int size, int limit) {
+        super(String.format("Query batch of %d queries exceeds the limit of %d", size, limit));
+    }
+}
@@ -0,0 +1,11 @@
+package com.metrics.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.UNPROCESSABLE_ENTITY)
+public class QueryBudgetExceededException extends RuntimeException {
+    public QueryBudgetExceededException(String reason) {
+        super(String.format("Query over budget: %s", reason));
+    }
+}
@@ -0,0 +1,11 @@
+package com.metrics.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class QueryGroupLimitException extends RuntimeException {
+    public QueryGroupLimitException(String metricName, int groups, int limit) {
+        super(String.format("Grouping %s yields %d groups, more than the limit of %d", metricName, groups, limit));
+    }
+}
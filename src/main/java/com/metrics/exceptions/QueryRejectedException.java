@@ -0,0 +1,11 @@
+package com.metrics.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+public class QueryRejectedException extends RuntimeException {
+    public QueryRejectedException(String reason) {
+        super(String.format("Query rejected: %s", reason));
+    }
+}
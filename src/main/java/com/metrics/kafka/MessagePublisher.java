@@ -1,28 +1,136 @@
 package com.metrics.kafka;
 
+import com.metrics.config.PublisherProperties;
 import com.metrics.exceptions.KafkaMessagePublisherException;
+import com.metrics.models.check.ProcessedMetric;
 import com.metrics.models.common.BaseMessage;
+import com.metrics.models.common.MessageEncoding;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous Kafka publisher. Sends are never awaited here; callers get a future per
+ * message or per batch and decide when to wait, which lets the producer batch and
+ * compress everything issued before the wait.
+ * <p>
+ * Bytes of unacknowledged sends are capped by {@code publisher.maxInFlightBytes}. Once the
+ * cap is reached {@link #publish} blocks the calling listener or fetch thread for up to
+ * {@code publisher.backpressureTimeout}, then fails, pushing back on ingestion instead of
+ * filling producer memory.
+ */
 @Component
-@RequiredArgsConstructor
 @Slf4j
-public class MessagePublisher {
+public class MessagePublisher implements DisposableBean {
 
-    private final KafkaTemplate<String, String> kafkaTemplate;
+    private final KafkaTemplate<String, byte[]> kafkaTemplate;
     private final ObjectMapper objectMapper;
+    private final ProcessedMetricCodec processedMetricCodec;
+    private final PublisherProperties publisherProperties;
+    private final Semaphore inFlightBytes;
+
+    public MessagePublisher(
+            ProducerFactory<String, byte[]> producerFactory,
+            ObjectMapper objectMapper,
+            ProcessedMetricCodec processedMetricCodec,
+            PublisherProperties publisherProperties,
+            MeterRegistry meterRegistry
+    ) {
+        // Same producer settings as the auto-configured template, with a byte[] value serializer.
+        // JSON is serialized to UTF-8 here too, so in-flight accounting sees encoded bytes.
+        this.kafkaTemplate = new KafkaTemplate<>(
+                producerFactory,
+                Map.of(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class)
+        );
+        this.objectMapper = objectMapper;
+        this.processedMetricCodec = processedMetricCodec;
+        this.publisherProperties = publisherProperties;
+        this.inFlightBytes = new Semaphore(publisherProperties.getMaxInFlightBytes());
 
-    public void publish(String topic, String key, BaseMessage message) {
+        meterRegistry.gauge("metrics.publisher.inflight.bytes", inFlightBytes,
+                s -> publisherProperties.getMaxInFlightBytes() - s.availablePermits());
+    }
+
+    public CompletableFuture<Void> publish(String topic, String key, BaseMessage message) {
         try {
-            String payload = objectMapper.writeValueAsString(message);
-            kafkaTemplate.send(topic, key, payload);
+            if (message instanceof ProcessedMetric metric
+                    && publisherProperties.encodingFor(topic) == MessageEncoding.BINARY) {
+                byte[] payload = processedMetricCodec.encode(metric);
+                return send(topic, key, message, payload.length, () -> kafkaTemplate.send(topic, key, payload));
+            }
+
+            byte[] payload = objectMapper.writeValueAsBytes(message);
+            return send(topic, key, message, payload.length, () -> kafkaTemplate.send(topic, key, payload));
+        } catch (KafkaMessagePublisherException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Failed to publish message to Kafka: {}", e.getMessage(), e);
             throw new KafkaMessagePublisherException(topic, key, message);
         }
     }
+
+    /**
+     * Issues all sends before returning; the future completes once every message of the
+     * batch is acknowledged by the broker, or exceptionally if any of them failed.
+     */
+    public <T extends BaseMessage> CompletableFuture<Void> publishAll(String topic, List<T> messages, Function<T, String> keyFn) {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[messages.size()];
+        for (int i = 0; i < messages.size(); i++) {
+            T message = messages.get(i);
+            futures[i] = publish(topic, keyFn.apply(message), message);
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    private CompletableFuture<Void> send(
+            String topic,
+            String key,
+            BaseMessage message,
+            int size,
+            Supplier<CompletableFuture<?>> sender
+    ) throws InterruptedException {
+        int permits = Math.min(Math.max(size, 1), publisherProperties.getMaxInFlightBytes());
+        long timeoutMs = publisherProperties.getBackpressureTimeout().toMillis();
+
+        if (!inFlightBytes.tryAcquire(permits, timeoutMs, TimeUnit.MILLISECONDS)) {
+            log.warn("Publisher backpressure: no in-flight capacity for topic {} within {} ms", topic, timeoutMs);
+            throw new KafkaMessagePublisherException(topic, key, message);
+        }
+
+        CompletableFuture<?> sent;
+        try {
+            sent = sender.get();
+        } catch (RuntimeException e) {
+            inFlightBytes.release(permits);
+            throw e;
+        }
+
+        return sent.handle((result, ex) -> {
+            inFlightBytes.release(permits);
+            if (ex != null) {
+                log.error("Failed to publish message to Kafka: {}", ex.getMessage(), ex);
+                throw new KafkaMessagePublisherException(topic, key, message);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void destroy() {
+        kafkaTemplate.destroy();
+    }
 }
@@ -0,0 +1,261 @@
+package com.metrics.kafka;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.metrics.models.check.ProcessedMetric;
+import com.metrics.models.common.MetricType;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Versioned binary encoding of {@link ProcessedMetric} for {@code metrics-processed}.
+ * <pre>
+ * magic:u8 (0xB7) version:u8 (1) flags:u8 type:u8
+ * [seriesId:i64]                       if flags & SERIES_ID
+ * epochSecond:zigzag-varint nanos:varint
+ * [value:f64]                          if flags & VALUE
+ * name:string
+ * labelCount:varint (key:string value:string)*
+ * [sketchLength:varint sketch:bytes]   if flags & SKETCH
+ * </pre>
+ * Strings are a varint byte length followed by UTF-8. {@link #decode} also accepts the
+ * JSON form, recognised by its leading {@code '{'}, so a topic can switch encodings
+ * without draining it first.
+ */
+@Component
+@RequiredArgsConstructor
+public class ProcessedMetricCodec {
+
+    static final byte MAGIC = (byte) 0xB7;
+    static final byte VERSION = 1;
+
+    private static final int FLAG_SERIES_ID = 1;
+    private static final int FLAG_VALUE = 1 << 1;
+    private static final int FLAG_SKETCH = 1 << 2;
+
+    private final ObjectMapper objectMapper;
+
+    public byte[] encode(ProcessedMetric metric) {
+        Writer out = new Writer(64 + (metric.getSketch() == null ? 0 : metric.getSketch().length));
+
+        int flags = (metric.getSeriesId() != null ? FLAG_SERIES_ID : 0)
+                | (metric.getValue() != null ? FLAG_VALUE : 0)
+                | (metric.getSketch() != null ? FLAG_SKETCH : 0);
+
+        out.writeByte(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(flags);
+        out.writeByte(typeCode(metric.getMetricType()));
+
+        if (metric.getSeriesId() != null) out.writeLong(metric.getSeriesId());
+
+        Instant ts = metric.getProcessedTimestamp();
+        out.writeVarLong(zigzag(ts.getEpochSecond()));
+        out.writeVarLong(ts.getNano());
+
+        if (metric.getValue() != null) out.writeLong(Double.doubleToRawLongBits(metric.getValue()));
+
+        out.writeString(metric.getMetricName());
+
+        JsonNode labels = metric.getLabels();
+        int labelCount = labels == null ? 0 : labels.size();
+        out.writeVarLong(labelCount);
+        if (labelCount > 0) {
+            Iterator<Map.Entry<String, JsonNode>> fields = labels.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                out.writeString(field.getKey());
+                out.writeString(field.getValue().asText());
+            }
+        }
+
+        if (metric.getSketch() != null) {
+            out.writeVarLong(metric.getSketch().length);
+            out.writeBytes(metric.getSketch());
+        }
+
+        return out.toByteArray();
+    }
+
+    public ProcessedMetric decode(byte[] bytes) throws IOException {
+        if (bytes.length > 0 && bytes[0] != MAGIC) {
+            return objectMapper.readValue(bytes, ProcessedMetric.class);
+        }
+
+        Reader in = new Reader(bytes);
+        if (in.readByte() != MAGIC) {
+            throw new IOException("Not a processed metric record");
+        }
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported processed metric encoding version: " + version);
+        }
+
+        int flags = in.readByte();
+        ProcessedMetric metric = new ProcessedMetric();
+        metric.setMetricType(fromTypeCode(in.readByte()));
+
+        if ((flags & FLAG_SERIES_ID) != 0) metric.setSeriesId(in.readLong());
+
+        long epochSecond = unzigzag(in.readVarLong());
+        metric.setProcessedTimestamp(Instant.ofEpochSecond(epochSecond, in.readVarLong()));
+
+        if ((flags & FLAG_VALUE) != 0) metric.setValue(Double.longBitsToDouble(in.readLong()));
+
+        metric.setMetricName(in.readString());
+
+        int labelCount = (int) in.readVarLong();
+        ObjectNode labels = JsonNodeFactory.instance.objectNode();
+        for (int i = 0; i < labelCount; i++) {
+            labels.put(in.readString(), in.readString());
+        }
+        metric.setLabels(labels);
+
+        if ((flags & FLAG_SKETCH) != 0) {
+            metric.setSketch(in.readBytes((int) in.readVarLong()));
+        }
+
+        return metric;
+    }
+
+    private static int typeCode(MetricType type) {
+        if (type == null) return 0;
+        return switch (type) {
+            case GAUGE -> 1;
+            case COUNTER -> 2;
+        };
+    }
+
+    private static MetricType fromTypeCode(int code) throws IOException {
+        return switch (code) {
+            case 0 -> null;
+            case 1 -> MetricType.GAUGE;
+            case 2 -> MetricType.COUNTER;
+            default -> throw new IOException("Unknown metric type code: " + code);
+        };
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static final class Writer {
+        private byte[] buf;
+        private int pos;
+
+        Writer(int capacity) {
+            this.buf = new byte[capacity];
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        void writeLong(long v) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[pos++] = (byte) (v >>> shift);
+            }
+        }
+
+        void writeVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        void writeString(String s) {
+            byte[] utf8 = s == null ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(utf8.length);
+            writeBytes(utf8);
+        }
+
+        void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return pos == buf.length ? buf : Arrays.copyOf(buf, pos);
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+            }
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buf;
+        private int pos;
+
+        Reader(byte[] buf) {
+            this.buf = buf;
+        }
+
+        int readByte() throws IOException {
+            check(1);
+            return buf[pos++];
+        }
+
+        long readLong() throws IOException {
+            check(8);
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        long readVarLong() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                check(1);
+                byte b = buf[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        String readString() throws IOException {
+            int length = (int) readVarLong();
+            check(length);
+            String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+
+        byte[] readBytes(int length) throws IOException {
+            check(length);
+            byte[] bytes = Arrays.copyOfRange(buf, pos, pos + length);
+            pos += length;
+            return bytes;
+        }
+
+        private void check(int n) throws IOException {
+            if (n < 0 || pos + n > buf.length) {
+                throw new IOException("Truncated processed metric record");
+            }
+        }
+    }
+}
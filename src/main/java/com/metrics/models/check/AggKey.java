@@ -1,21 +1,26 @@
 package com.metrics.models.check;
 
 import com.metrics.models.common.MetricType;
-import lombok.Builder;
 import lombok.Getter;
-import lombok.Setter;
 
-import java.time.Instant;
-import java.util.Objects;
-
-@Builder
+/**
+ * Aggregation key of one series in one window. The series ID already covers the metric
+ * name and labels, so equality is three primitive/enum comparisons and the hash is
+ * computed once.
+ */
 @Getter
-@Setter
 public class AggKey{
-    String metricName;
-    MetricType metricType;
-    Instant alignedTs;
-    String seriesKey;
+    private final long seriesId;
+    private final MetricType metricType;
+    private final long alignedEpochSecond;
+    private final int hash;
+
+    public AggKey(long seriesId, MetricType metricType, long alignedEpochSecond) {
+        this.seriesId = seriesId;
+        this.metricType = metricType;
+        this.alignedEpochSecond = alignedEpochSecond;
+        this.hash = 31 * (31 * Long.hashCode(seriesId) + metricType.hashCode()) + Long.hashCode(alignedEpochSecond);
+    }
 
     @Override
     public boolean equals(Object o) {
@@ -24,14 +29,13 @@ public class AggKey{
 
         AggKey aggKey = (AggKey) o;
 
-        return Objects.equals(metricName, aggKey.metricName)
+        return seriesId == aggKey.seriesId
                 && metricType == aggKey.metricType
-                && Objects.equals(alignedTs, aggKey.alignedTs)
-                && Objects.equals(seriesKey, aggKey.seriesKey);
+                && alignedEpochSecond == aggKey.alignedEpochSecond;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(metricName, metricType, alignedTs, seriesKey);
+        return hash;
     }
 }
@@ -0,0 +1,39 @@
+package com.metrics.models.check;
+
+import com.metrics.models.common.MetricType;
+import com.metrics.utils.TDigestSketch;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Instant;
+
+/**
+ * Mutable per-series, per-window accumulator. The sketch stays a live t-digest while
+ * samples are added and is serialized only once, when the state is emitted as a
+ * {@link ProcessedMetric}.
+ */
+@Builder
+@Getter
+@Setter
+public class AggregationState {
+    long seriesId;
+    String metricName;
+    MetricType metricType;
+    Instant alignedTs;
+    LabelSet labels;
+    double value;
+    TDigestSketch sketch;
+
+    public ProcessedMetric toProcessedMetric() {
+        return ProcessedMetric.builder()
+                .seriesId(seriesId)
+                .metricName(metricName)
+                .metricType(metricType)
+                .processedTimestamp(alignedTs)
+                .value(value)
+                .labels(labels.toJson())
+                .sketch(sketch.serialize())
+                .build();
+    }
+}
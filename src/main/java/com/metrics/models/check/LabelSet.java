@@ -0,0 +1,100 @@
+package com.metrics.models.check;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Arrays;
+
+/**
+ * Canonical, immutable label set: parallel key/value arrays sorted by key, with the hash
+ * computed once. Instances are interned by {@code SeriesRegistry}, so samples of the same
+ * series share one instance and usually compare by reference.
+ */
+public final class LabelSet {
+
+    public static final LabelSet EMPTY = new LabelSet(new String[0], new String[0]);
+
+    private final String[] keys;
+    private final String[] values;
+    private final int hash;
+
+    private LabelSet(String[] keys, String[] values) {
+        this.keys = keys;
+        this.values = values;
+        this.hash = 31 * Arrays.hashCode(keys) + Arrays.hashCode(values);
+    }
+
+    /**
+     * Builds a label set from the first {@code size} entries of the given arrays, sorting
+     * them by key in place. Label sets are small, so an insertion sort is used.
+     */
+    public static LabelSet sorted(String[] keys, String[] values, int size) {
+        if (size == 0) {
+            return EMPTY;
+        }
+
+        for (int i = 1; i < size; i++) {
+            String key = keys[i];
+            String value = values[i];
+            int j = i - 1;
+            while (j >= 0 && keys[j].compareTo(key) > 0) {
+                keys[j + 1] = keys[j];
+                values[j + 1] = values[j];
+                j--;
+            }
+            keys[j + 1] = key;
+            values[j + 1] = value;
+        }
+
+        return new LabelSet(Arrays.copyOf(keys, size), Arrays.copyOf(values, size));
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public String key(int i) {
+        return keys[i];
+    }
+
+    public String value(int i) {
+        return values[i];
+    }
+
+    /**
+     * JSON form of the labels. Interned label sets are shared across threads, so a new
+     * node is built on every call (once per emitted window) and belongs to the caller.
+     */
+    public ObjectNode toJson() {
+        ObjectNode node = JsonNodeFactory.instance.objectNode();
+        for (int i = 0; i < keys.length; i++) {
+            node.put(keys[i], values[i]);
+        }
+        return node;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof LabelSet other)) return false;
+
+        return hash == other.hash
+                && Arrays.equals(keys, other.keys)
+                && Arrays.equals(values, other.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < keys.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(keys[i]).append('=').append(values[i]);
+        }
+        return sb.append('}').toString();
+    }
+}
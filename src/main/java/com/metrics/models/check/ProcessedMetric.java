@@ -14,6 +14,7 @@ import java.time.Instant;
 @ToString(callSuper = true)
 public class ProcessedMetric extends BaseMessage {
 
+    private Long seriesId;
     private String metricName;
     private MetricType metricType;
     private Instant processedTimestamp;
@@ -1,9 +1,12 @@
 package com.metrics.models.check;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.metrics.models.common.MetricType;
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Getter;
+import lombok.NoArgsConstructor;
 import lombok.Setter;
 
 import java.time.Instant;
@@ -11,10 +14,18 @@ import java.time.Instant;
 @Builder
 @Getter
 @Setter
+@NoArgsConstructor
+@AllArgsConstructor
 public class RawMetric{
     String metricName;
     MetricType metricType;
     JsonNode labels;
     double value;
     Instant timestamp;
+
+    @JsonIgnore
+    long seriesId;
+
+    @JsonIgnore
+    LabelSet labelSet;
 }
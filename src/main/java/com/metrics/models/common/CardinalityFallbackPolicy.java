@@ -0,0 +1,19 @@
+package com.metrics.models.common;
+
+import lombok.Getter;
+
+/**
+ * What {@code CardinalityGuard} does with series that are not in its local cache while
+ * Redis is unreachable. Series already in the cache are always admitted.
+ */
+@Getter
+public enum CardinalityFallbackPolicy {
+    ADMIT("admit"),
+    REJECT("reject");
+
+    private final String value;
+
+    CardinalityFallbackPolicy(String value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,20 @@
+package com.metrics.models.common;
+
+import lombok.Getter;
+
+/**
+ * EXACT keeps every admitted series key in a Redis set per metric. APPROXIMATE counts
+ * series with a Redis HyperLogLog per metric and remembers admitted series in a local
+ * Bloom filter, trading a small, configurable over-admission for constant-size state.
+ */
+@Getter
+public enum CardinalityMode {
+    EXACT("exact"),
+    APPROXIMATE("approximate");
+
+    private final String value;
+
+    CardinalityMode(String value) {
+        this.value = value;
+    }
+}
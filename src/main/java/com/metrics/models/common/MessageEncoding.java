@@ -0,0 +1,15 @@
+package com.metrics.models.common;
+
+import lombok.Getter;
+
+@Getter
+public enum MessageEncoding {
+    JSON("json"),
+    BINARY("binary");
+
+    private final String value;
+
+    MessageEncoding(String value) {
+        this.value = value;
+    }
+}
@@ -8,7 +8,9 @@ public enum Operation {
     SUM("sum"),
     AVG("avg"),
     RATE("rate"),
-    P95("p95");
+    P95("p95"),
+    QUANTILES("quantiles"),
+    HISTOGRAM("histogram");
 
     private final String value;
 
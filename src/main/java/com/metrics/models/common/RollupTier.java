@@ -0,0 +1,39 @@
+package com.metrics.models.common;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Pre-aggregated resolutions maintained next to {@code metric_samples}, finest first.
+ */
+@Getter
+public enum RollupTier {
+    ONE_MINUTE("1m", 60, "metric_rollup_1m"),
+    FIVE_MINUTES("5m", 300, "metric_rollup_5m"),
+    ONE_HOUR("1h", 3600, "metric_rollup_1h");
+
+    private final String value;
+    private final long seconds;
+    private final String table;
+
+    RollupTier(String value, long seconds, String table) {
+        this.value = value;
+        this.seconds = seconds;
+        this.table = table;
+    }
+
+    /**
+     * Coarsest tier whose buckets tile {@code step} exactly, or {@code null} when only
+     * raw samples are fine-grained enough.
+     */
+    public static RollupTier coarsestFor(Duration step) {
+        RollupTier[] tiers = values();
+        for (int i = tiers.length - 1; i >= 0; i--) {
+            if (step.getSeconds() % tiers[i].seconds == 0) {
+                return tiers[i];
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,16 @@
+package com.metrics.models.common;
+
+import lombok.Getter;
+
+@Getter
+public enum StoreWriteMode {
+    INSERT("insert"),
+    COPY("copy"),
+    UPSERT("upsert");
+
+    private final String value;
+
+    StoreWriteMode(String value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,10 @@
+package com.metrics.models.query;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class BatchQueryRequest {
+    private List<QueryRequest> queries;
+}
@@ -0,0 +1,15 @@
+package com.metrics.models.query;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * One result per query, in request order.
+ */
+@Getter
+@AllArgsConstructor
+public class BatchQueryResponse {
+    private List<BatchQueryResult> results;
+}
@@ -0,0 +1,26 @@
+package com.metrics.models.query;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Outcome of one query of a batch: either {@code result} or {@code error} is set.
+ */
+@Getter
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchQueryResult {
+
+    private QueryResponse result;
+    private String error;
+
+    public static BatchQueryResult of(QueryResponse response) {
+        return new BatchQueryResult(response, null);
+    }
+
+    public static BatchQueryResult failed(String error) {
+        return new BatchQueryResult(null, error);
+    }
+}
@@ -0,0 +1,56 @@
+package com.metrics.models.query;
+
+import lombok.Getter;
+
+/**
+ * Step-indexed values of one query result: bucket {@code i} starts at
+ * {@code from + i * step} (epoch seconds). Buckets without data stay 0, so gaps are
+ * filled by construction.
+ */
+@Getter
+public class BucketSeries {
+
+    private final long from;
+    private final long step;
+    private final double[] values;
+
+    public BucketSeries(long from, long to, long step) {
+        this.from = from;
+        this.step = step;
+        this.values = new double[(int) ((to - from) / step) + 1];
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public long timestampAt(int index) {
+        return from + index * step;
+    }
+
+    /**
+     * Returns the index of the bucket starting at {@code epochSecond}, or {@code -1} when it
+     * lies outside the series or off the step grid.
+     */
+    public int indexOf(long epochSecond) {
+        long offset = epochSecond - from;
+        if (offset < 0 || offset % step != 0 || offset / step >= values.length) return -1;
+        return (int) (offset / step);
+    }
+
+    /**
+     * Sets the bucket starting at {@code epochSecond}; anything outside the series or off
+     * the step grid is ignored.
+     */
+    public void set(long epochSecond, double value) {
+        int index = indexOf(epochSecond);
+        if (index >= 0) {
+            values[index] = value;
+        }
+    }
+
+    public double get(long epochSecond) {
+        int index = indexOf(epochSecond);
+        return index >= 0 ? values[index] : 0.0;
+    }
+}
@@ -0,0 +1,19 @@
+package com.metrics.models.query;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Immutable bucket values of one query shape over the contiguous bucket range
+ * {@code [from, to]} (epoch seconds, step aligned), indexed like {@link BucketSeries}.
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class CachedSeries {
+    private long from;
+    private long to;
+    private long step;
+    private double[] values;
+}
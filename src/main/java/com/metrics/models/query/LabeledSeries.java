@@ -0,0 +1,17 @@
+package com.metrics.models.query;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Map;
+
+/**
+ * One series of a grouped query, with the group-by label values it was built from.
+ * Labels missing on the underlying series are omitted.
+ */
+@Getter
+@AllArgsConstructor
+public class LabeledSeries {
+    private Map<String, String> labels;
+    private BucketSeries series;
+}
@@ -3,5 +3,7 @@ package com.metrics.models.query;
 public interface QuantileSketch {
     void merge(QuantileSketch other);
     double getQuantile(double q);
+    double getCdf(double x);
+    long getCount();
     byte[] serialize();
 }
@@ -5,6 +5,7 @@ import lombok.Builder;
 import lombok.Data;
 
 import java.time.Instant;
+import java.util.List;
 import java.util.Map;
 
 @Data
@@ -14,6 +15,11 @@ public class QueryRequest {
     private String metricName;
     private Operation operation;
     private Map<String, String> labels;
+    private List<String> groupBy;
+    // QUANTILES: quantiles in [0, 1]
+    private List<Double> quantiles;
+    // HISTOGRAM: increasing bucket upper bounds; a final +Inf bucket is implied
+    private List<Double> buckets;
     private Instant from;
     private Instant to;
 }
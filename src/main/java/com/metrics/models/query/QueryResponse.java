@@ -1,12 +1,30 @@
 package com.metrics.models.query;
 
-import lombok.AllArgsConstructor;
-import lombok.Data;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import lombok.Getter;
 
 import java.util.List;
 
-@Data
-@AllArgsConstructor
+/**
+ * Wraps the result arrays directly; {@link QueryResponseSerializer} writes them in the
+ * {@code {"series":[{"ts":...,"value":...}]}} form without building per-point objects.
+ * Grouped queries carry {@code groups} instead, written as
+ * {@code {"groups":[{"labels":{...},"series":[...]}]}}.
+ */
+@Getter
+@JsonSerialize(using = QueryResponseSerializer.class)
 public class QueryResponse {
-    private List<TimeSeriesPoint> series;
+
+    private final BucketSeries series;
+    private final List<LabeledSeries> groups;
+
+    public QueryResponse(BucketSeries series) {
+        this.series = series;
+        this.groups = null;
+    }
+
+    public QueryResponse(List<LabeledSeries> groups) {
+        this.series = null;
+        this.groups = groups;
+    }
 }
@@ -0,0 +1,51 @@
+package com.metrics.models.query;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Map;
+
+public class QueryResponseSerializer extends StdSerializer<QueryResponse> {
+
+    public QueryResponseSerializer() {
+        super(QueryResponse.class);
+    }
+
+    @Override
+    public void serialize(QueryResponse response, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        gen.writeStartObject();
+        if (response.getGroups() == null) {
+            writeSeries(response.getSeries(), gen);
+        } else {
+            gen.writeArrayFieldStart("groups");
+            for (LabeledSeries group : response.getGroups()) {
+                gen.writeStartObject();
+                gen.writeObjectFieldStart("labels");
+                for (Map.Entry<String, String> label : group.getLabels().entrySet()) {
+                    gen.writeStringField(label.getKey(), label.getValue());
+                }
+                gen.writeEndObject();
+                writeSeries(group.getSeries(), gen);
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+        }
+        gen.writeEndObject();
+    }
+
+    private static void writeSeries(BucketSeries series, JsonGenerator gen) throws IOException {
+        double[] values = series.getValues();
+
+        gen.writeArrayFieldStart("series");
+        for (int i = 0; i < values.length; i++) {
+            gen.writeStartObject();
+            gen.writeStringField("ts", Instant.ofEpochSecond(series.timestampAt(i)).toString());
+            gen.writeNumberField("value", values[i]);
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+    }
+}
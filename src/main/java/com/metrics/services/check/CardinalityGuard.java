@@ -1,56 +1,254 @@
 package com.metrics.services.check;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.metrics.config.AppConfigStore;
 import com.metrics.models.check.RawMetric;
-import lombok.RequiredArgsConstructor;
+import com.metrics.models.common.CardinalityFallbackPolicy;
+import com.metrics.models.common.CardinalityMode;
+import com.metrics.utils.BloomFilter;
+import com.metrics.utils.BoundedCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Enforces the per-metric series limit. Series that were admitted before are answered
+ * locally; everything else in a batch is resolved with a single atomic Lua call.
+ * <p>
+ * Series are identified by their {@link SeriesRegistry} ID, written to Redis in base 36.
+ * In {@link CardinalityMode#EXACT} mode the local answer comes from a bounded cache and
+ * Redis holds a {@code metric:sids:<name>} set per metric. In
+ * {@link CardinalityMode#APPROXIMATE} mode a local Bloom filter remembers admitted
+ * series and Redis holds a {@code metric:{<name>}:hll} HyperLogLog per metric (about
+ * 12 KB each regardless of series count). Only admitted series are added to it, so
+ * over-admission beyond the limit is bounded by the Bloom false-positive rate plus
+ * HyperLogLog's ~0.81% standard error. Each metric is resolved with its own call on
+ * hash-tagged keys, so every call stays in one Redis Cluster slot. The Bloom filter is
+ * local and starts empty after a restart; series are then re-admitted through Redis.
+ */
 @Component
-@RequiredArgsConstructor
+@Slf4j
 public class CardinalityGuard {
 
+    private static final String SERIES_KEY_PREFIX = "metric:sids:";
+    // The metric name is the hash tag, so a metric's HyperLogLog and probe share a slot
+    private static final String HLL_KEY = "metric:{%s}:hll";
+    private static final String HLL_PROBE_KEY = "metric:{%s}:hll-probe";
+
+    /**
+     * KEYS: one series set per distinct metric, ARGV[1]: series limit,
+     * then pairs of (KEYS index, series ID). Returns 1/0 per pair.
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> ADMIT_SCRIPT = new DefaultRedisScript<>("""
+            local limit = tonumber(ARGV[1])
+            local result = {}
+            for i = 2, #ARGV, 2 do
+              local key = KEYS[tonumber(ARGV[i])]
+              local member = ARGV[i + 1]
+              if redis.call('SISMEMBER', key, member) == 1 then
+                result[#result + 1] = 1
+              elseif redis.call('SCARD', key) < limit then
+                redis.call('SADD', key, member)
+                result[#result + 1] = 1
+              else
+                result[#result + 1] = 0
+              end
+            end
+            return result
+            """, List.class);
+
+    /**
+     * Same contract as {@link #ADMIT_SCRIPT} over the HyperLogLog of one metric, with the
+     * last of KEYS as that metric's scratch key. Below the limit the series is counted and admitted. At the limit the
+     * series is probed against a copy of the registers: a PFADD that leaves the copy
+     * unchanged means it was (almost certainly) counted before, so it is still admitted.
+     * Rejected series never touch the real key, so they cannot fill its registers and
+     * make later unseen series look counted.
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> ADMIT_APPROXIMATE_SCRIPT = new DefaultRedisScript<>("""
+            local limit = tonumber(ARGV[1])
+            local probe = KEYS[#KEYS]
+            local result = {}
+            for i = 2, #ARGV, 2 do
+              local key = KEYS[tonumber(ARGV[i])]
+              local member = ARGV[i + 1]
+              if redis.call('PFCOUNT', key) < limit then
+                redis.call('PFADD', key, member)
+                result[#result + 1] = 1
+              else
+                redis.call('DEL', probe)
+                redis.call('PFMERGE', probe, key)
+                if redis.call('PFADD', probe, member) == 0 then
+                  result[#result + 1] = 1
+                else
+                  result[#result + 1] = 0
+                end
+              end
+            end
+            redis.call('DEL', probe)
+            return result
+            """, List.class);
+
     private final StringRedisTemplate redisTemplate;
     private final AppConfigStore appConfigStore;
+    private final CardinalityMode mode;
+    private final BoundedCache<Long, Boolean> admitted;
+    private final BloomFilter admittedFilter;
 
-    public boolean isAllowed(RawMetric raw) {
-        return allow(raw.getMetricName(), raw.getLabels());
+    private final Counter cacheHits;
+    private final Counter cacheMisses;
+    private final Counter rejected;
+    private final Counter redisFailures;
+
+    public CardinalityGuard(StringRedisTemplate redisTemplate, AppConfigStore appConfigStore, MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.appConfigStore = appConfigStore;
+        this.mode = appConfigStore.getCardinalityMode();
+
+        if (mode == CardinalityMode.APPROXIMATE) {
+            this.admitted = null;
+            this.admittedFilter = new BloomFilter(
+                    appConfigStore.getCardinalityBloomExpectedInsertions(),
+                    appConfigStore.getCardinalityBloomFalsePositiveRate()
+            );
+        } else {
+            this.admitted = new BoundedCache<>(appConfigStore.getCardinalityCacheSize());
+            this.admittedFilter = null;
+        }
+
+        this.cacheHits = meterRegistry.counter("metrics.cardinality.cache", "result", "hit");
+        this.cacheMisses = meterRegistry.counter("metrics.cardinality.cache", "result", "miss");
+        this.rejected = meterRegistry.counter("metrics.cardinality.rejected");
+        this.redisFailures = meterRegistry.counter("metrics.cardinality.redis.failures");
     }
 
-    private boolean allow(String metricName, JsonNode labels) {
+    /**
+     * Returns the admitted subset of {@code raws}, preserving their order.
+     */
+    public List<RawMetric> filterAllowed(List<RawMetric> raws) {
+        boolean[] checked = new boolean[raws.size()];
+        Map<Long, Boolean> pending = new LinkedHashMap<>();
+
+        for (int i = 0; i < raws.size(); i++) {
+            RawMetric raw = raws.get(i);
+            if (raw.getLabelSet().size() > appConfigStore.getLabelSizeLimit()) {
+                continue;
+            }
+            checked[i] = true;
 
-        if (labels != null && labels.size() > appConfigStore.getLabelSizeLimit()) {
-            return false;
+            if (isKnown(raw.getSeriesId())) {
+                cacheHits.increment();
+            } else {
+                cacheMisses.increment();
+                pending.put(raw.getSeriesId(), Boolean.FALSE);
+            }
         }
 
-        String seriesKey = buildSeriesKey(metricName, labels);
-        String redisKey = "metric:series:" + metricName;
+        if (!pending.isEmpty()) {
+            resolve(raws, pending);
+        }
 
-        Long count = redisTemplate.opsForSet().size(redisKey);
+        List<RawMetric> result = new ArrayList<>(raws.size());
+        for (int i = 0; i < raws.size(); i++) {
+            RawMetric raw = raws.get(i);
+            if (checked[i] && !Boolean.FALSE.equals(pending.get(raw.getSeriesId()))) {
+                result.add(raw);
+            } else {
+                rejected.increment();
+            }
+        }
+        return result;
+    }
 
-        if (count != null && count >= appConfigStore.getMetricSeriesLimit()) {
-            return Boolean.TRUE.equals(redisTemplate.opsForSet().isMember(redisKey, seriesKey));
+    private void resolve(List<RawMetric> raws, Map<Long, Boolean> pending) {
+        Map<Long, String> metricBySeries = new LinkedHashMap<>();
+        for (RawMetric raw : raws) {
+            if (pending.containsKey(raw.getSeriesId())) {
+                metricBySeries.putIfAbsent(raw.getSeriesId(), raw.getMetricName());
+            }
         }
 
-        redisTemplate.opsForSet().add(redisKey, seriesKey);
-        return true;
+        if (mode == CardinalityMode.APPROXIMATE) {
+            Map<String, List<Long>> seriesByMetric = new LinkedHashMap<>();
+            metricBySeries.forEach((seriesId, metricName) ->
+                    seriesByMetric.computeIfAbsent(metricName, k -> new ArrayList<>()).add(seriesId));
+
+            seriesByMetric.forEach((metricName, seriesIds) -> {
+                List<String> args = new ArrayList<>(1 + seriesIds.size() * 2);
+                args.add(String.valueOf(appConfigStore.getMetricSeriesLimit()));
+                for (Long seriesId : seriesIds) {
+                    args.add("1");
+                    args.add(Long.toUnsignedString(seriesId, 36));
+                }
+                admit(ADMIT_APPROXIMATE_SCRIPT,
+                        List.of(String.format(HLL_KEY, metricName), String.format(HLL_PROBE_KEY, metricName)),
+                        args, seriesIds, pending);
+            });
+            return;
+        }
+
+        List<String> keys = new ArrayList<>();
+        Map<String, Integer> keyIndex = new LinkedHashMap<>();
+        List<String> args = new ArrayList<>(1 + pending.size() * 2);
+        args.add(String.valueOf(appConfigStore.getMetricSeriesLimit()));
+
+        for (Map.Entry<Long, String> entry : metricBySeries.entrySet()) {
+            Integer index = keyIndex.computeIfAbsent(entry.getValue(), metricName -> {
+                keys.add(SERIES_KEY_PREFIX + metricName);
+                return keys.size();
+            });
+            args.add(String.valueOf(index));
+            args.add(Long.toUnsignedString(entry.getKey(), 36));
+        }
+        admit(ADMIT_SCRIPT, keys, args, new ArrayList<>(metricBySeries.keySet()), pending);
     }
 
-    private String buildSeriesKey(String metricName, JsonNode labels) {
-        if (labels == null || labels.isEmpty()) {
-            return metricName;
+    @SuppressWarnings("rawtypes")
+    private void admit(RedisScript<List> script, List<String> keys, List<String> args, List<Long> seriesIds,
+                       Map<Long, Boolean> pending) {
+        List<?> decisions;
+        try {
+            decisions = redisTemplate.execute(script, keys, args.toArray());
+        } catch (Exception e) {
+            redisFailures.increment();
+            boolean admit = appConfigStore.getCardinalityFallback() == CardinalityFallbackPolicy.ADMIT;
+            log.warn("Cardinality check unavailable, applying fallback {} to {} series: {}",
+                    appConfigStore.getCardinalityFallback(), seriesIds.size(), e.getMessage());
+            seriesIds.forEach(seriesId -> pending.put(seriesId, admit));
+            return;
         }
 
-        List<String> parts = new ArrayList<>();
-        labels.fieldNames()
-              .forEachRemaining(f -> parts.add(f + "=" + labels.get(f).asText()));
+        int i = 0;
+        for (Long seriesId : seriesIds) {
+            boolean allowed = decisions != null && ((Number) decisions.get(i++)).longValue() == 1L;
+            pending.put(seriesId, allowed);
+            if (allowed) {
+                remember(seriesId);
+            }
+        }
+    }
 
-        Collections.sort(parts);
-        return metricName + "|" + String.join(",", parts);
+    private boolean isKnown(long seriesId) {
+        return mode == CardinalityMode.APPROXIMATE
+                ? admittedFilter.mightContain(seriesId)
+                : admitted.containsKey(seriesId);
+    }
+
+    private void remember(long seriesId) {
+        if (mode == CardinalityMode.APPROXIMATE) {
+            admittedFilter.put(seriesId);
+        } else {
+            admitted.put(seriesId, Boolean.TRUE);
+        }
     }
 }
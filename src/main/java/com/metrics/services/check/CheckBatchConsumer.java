@@ -0,0 +1,68 @@
+package com.metrics.services.check;
+
+import com.metrics.kafka.MessagePublisher;
+import com.metrics.models.check.ProcessedMetric;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.metrics.constants.Constants.KafkaConstants.METRICS_PROCESSED_TOPIC;
+import static com.metrics.constants.Constants.KafkaConstants.METRICS_RAW_TOPIC;
+
+/**
+ * Batch counterpart of {@link CheckConsumer}, enabled with {@code check.batch.enabled}.
+ * Records are consumed as raw bytes and handed to a single {@link CheckService} pass, which
+ * extracts them record by record, so one malformed message is logged and skipped instead
+ * of failing the whole batch, and the surviving messages share one aggregation state.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "check.batch.enabled", havingValue = "true")
+public class CheckBatchConsumer {
+
+    private final CheckService checkService;
+    private final MessagePublisher messagePublisher;
+    private final CheckOffsetCommitter offsetCommitter;
+
+    @KafkaListener(
+            topics = METRICS_RAW_TOPIC,
+            groupId = "check-group",
+            containerFactory = "checkBatchListenerContainerFactory"
+    )
+    public void consume(List<ConsumerRecord<String, byte[]>> records, Consumer<?, ?> consumer) {
+        long start = System.nanoTime();
+
+        Map<Integer, List<byte[]>> fetchMessages = new LinkedHashMap<>();
+        Map<Integer, Long> firstOffsets = new HashMap<>();
+        for (ConsumerRecord<String, byte[]> record : records) {
+            if (record.value() == null) continue;
+            fetchMessages.computeIfAbsent(record.partition(), p -> new ArrayList<>()).add(record.value());
+            firstOffsets.putIfAbsent(record.partition(), record.offset());
+        }
+
+        List<ProcessedMetric> processedMetricList = checkService.process(fetchMessages, firstOffsets);
+        publish(processedMetricList);
+
+        records.forEach(record -> offsetCommitter.consumed(record.partition(), record.offset()));
+        offsetCommitter.commit(consumer);
+
+        log.debug("metrics-check processed {} records into {} metrics in {} ms",
+                records.size(), processedMetricList.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void publish(List<ProcessedMetric> processedMetricList) {
+        // Wait for the broker before returning so offsets are only committed once published
+        messagePublisher.publishAll(METRICS_PROCESSED_TOPIC, processedMetricList, ProcessedMetric::getMetricName).join();
+    }
+}
@@ -1,15 +1,18 @@
 package com.metrics.services.check;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.metrics.exceptions.MetricProcessException;
 import com.metrics.kafka.MessagePublisher;
 import com.metrics.models.check.ProcessedMetric;
-import com.metrics.models.fetch.FetchMessage;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.stereotype.Component;
+
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static com.metrics.constants.Constants.KafkaConstants.METRICS_PROCESSED_TOPIC;
 import static com.metrics.constants.Constants.KafkaConstants.METRICS_RAW_TOPIC;
@@ -18,30 +21,38 @@ import static com.metrics.constants.Constants.KafkaConstants.METRICS_RAW_TOPIC;
 @Component
 @Slf4j
 @RequiredArgsConstructor
+@ConditionalOnProperty(name = "check.batch.enabled", havingValue = "false", matchIfMissing = true)
 public class CheckConsumer {
 
-    private final ObjectMapper objectMapper;
     private final CheckService checkService;
     private final MessagePublisher messagePublisher;
+    private final CheckOffsetCommitter offsetCommitter;
 
-    @KafkaListener(topics = METRICS_RAW_TOPIC, groupId = "check-group")
-    public void consume(String message) {
+    @KafkaListener(topics = METRICS_RAW_TOPIC, groupId = "check-group", containerFactory = "checkListenerContainerFactory")
+    public void consume(ConsumerRecord<String, String> record, Consumer<?, ?> consumer) {
+        String message = record.value();
         try {
-            log.info("metrics-check received incoming message: {}",message);
-            FetchMessage fetchMessage = objectMapper.readValue(message, FetchMessage.class);
-
-            List<ProcessedMetric> processedMetricList =  checkService.process(fetchMessage);
-            processedMetricList.forEach(metric ->
-                    messagePublisher.publish(
-                            METRICS_PROCESSED_TOPIC,
-                            metric.getMetricName(),
-                            metric
-                    )
-            );
+            log.debug("metrics-check received incoming message: {}", message);
+            CompletableFuture<Void> published = publish(checkService.process(record.partition(), record.offset(), message));
+            if (offsetCommitter.isEnabled()) {
+                // Offsets are committed below, so the output must be on the broker first
+                published.join();
+            }
 
         } catch (Exception e) {
             log.error("Check failed to parse message: {}", e.getMessage(), e);
             throw new MetricProcessException(message);
         }
+
+        offsetCommitter.consumed(record.partition(), record.offset());
+        offsetCommitter.commit(consumer);
+    }
+
+    /**
+     * Not awaited by default: waiting per record would hold every record for at least
+     * {@code linger.ms}. The in-flight cap still blocks the listener when brokers fall behind.
+     */
+    private CompletableFuture<Void> publish(List<ProcessedMetric> processedMetricList) {
+        return messagePublisher.publishAll(METRICS_PROCESSED_TOPIC, processedMetricList, ProcessedMetric::getMetricName);
     }
 }
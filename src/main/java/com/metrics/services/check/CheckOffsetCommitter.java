@@ -0,0 +1,111 @@
+package com.metrics.services.check;
+
+import com.metrics.kafka.MessagePublisher;
+import com.metrics.models.check.ProcessedMetric;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.metrics.constants.Constants.KafkaConstants.METRICS_PROCESSED_TOPIC;
+import static com.metrics.constants.Constants.KafkaConstants.METRICS_RAW_TOPIC;
+
+/**
+ * Commits {@code metrics-raw} offsets for the check listeners when
+ * {@code check.window.enabled} is set; their containers then run with
+ * {@code AckMode.MANUAL} and this class as rebalance listener (see {@code KafkaConfig}).
+ * Without the window store every method is a no-op and the containers commit as usual.
+ * <p>
+ * A partition is committed up to the first offset that still contributes to an open
+ * {@link MetricWindowStore} window, so records behind open windows are redelivered after
+ * a crash instead of being lost with the in-memory state. On revocation every window of
+ * the partition is published first and the partition is then committed in full, before
+ * the container hands it over.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class CheckOffsetCommitter {
+
+    private final CheckService checkService;
+    private final MetricWindowStore windowStore;
+    private final MessagePublisher messagePublisher;
+
+    private final Map<Integer, Long> consumed = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> committed = new ConcurrentHashMap<>();
+
+    /**
+     * Whether this class commits the check offsets, i.e. the window store is enabled.
+     */
+    public boolean isEnabled() {
+        return windowStore.isEnabled();
+    }
+
+    /**
+     * Records that offsets up to {@code offset} of {@code partition} were processed.
+     */
+    public void consumed(int partition, long offset) {
+        if (!windowStore.isEnabled()) return;
+        consumed.merge(partition, offset + 1, Math::max);
+    }
+
+    /**
+     * Commits every partition of {@code consumer} whose committable offset advanced. Must
+     * run on the consumer thread, after the windows closed so far were published.
+     */
+    public void commit(Consumer<?, ?> consumer) {
+        if (!windowStore.isEnabled()) return;
+
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (TopicPartition partition : consumer.assignment()) {
+            if (!METRICS_RAW_TOPIC.equals(partition.topic())) continue;
+
+            Long next = consumed.get(partition.partition());
+            if (next == null) continue;
+
+            Long firstOpen = windowStore.firstOpenOffset(partition.partition());
+            long offset = firstOpen == null ? next : Math.min(firstOpen, next);
+            if (offset > committed.getOrDefault(partition.partition(), -1L)) {
+                offsets.put(partition, new OffsetAndMetadata(offset));
+            }
+        }
+        if (offsets.isEmpty()) return;
+
+        try {
+            consumer.commitSync(offsets);
+            offsets.forEach((partition, offset) -> committed.put(partition.partition(), offset.offset()));
+        } catch (Exception e) {
+            // Retried with the next commit; failing the listener would re-aggregate its record
+            log.warn("Could not commit check offsets {}: {}", offsets, e.getMessage());
+        }
+    }
+
+    /**
+     * Publishes the windows of revoked partitions and commits them; runs on the consumer
+     * thread before the container's own revocation commit.
+     */
+    public void revoked(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        List<Integer> revoked = partitions.stream()
+                .filter(partition -> METRICS_RAW_TOPIC.equals(partition.topic()))
+                .map(TopicPartition::partition)
+                .toList();
+        if (revoked.isEmpty()) return;
+
+        List<ProcessedMetric> closed = checkService.closeWindows(revoked);
+        messagePublisher.publishAll(METRICS_PROCESSED_TOPIC, closed, ProcessedMetric::getMetricName).join();
+
+        commit(consumer);
+        revoked.forEach(partition -> {
+            consumed.remove(partition);
+            committed.remove(partition);
+        });
+    }
+}
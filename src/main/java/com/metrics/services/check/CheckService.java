@@ -1,30 +1,84 @@
 package com.metrics.services.check;
 
 import com.metrics.models.check.AggKey;
+import com.metrics.models.check.AggregationState;
 import com.metrics.models.check.ProcessedMetric;
-import com.metrics.models.fetch.FetchMessage;
+import com.metrics.models.check.RawMetric;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 @Service
+@Slf4j
 @RequiredArgsConstructor
 public class CheckService {
 
     private final RawMetricExtractor extractor;
     private final CardinalityGuard cardinalityGuard;
     private final MetricAggregator aggregator;
+    private final MetricWindowStore windowStore;
 
-    public List<ProcessedMetric> process(FetchMessage message) {
-        Map<AggKey, ProcessedMetric> state = new HashMap<>();
+    public List<ProcessedMetric> process(int partition, long offset, String message) throws IOException {
+        return aggregate(Map.of(partition, cardinalityGuard.filterAllowed(extractor.extract(message))), Map.of(partition, offset));
+    }
+
+    /**
+     * Aggregates all messages into one shared state, so samples of the same series and
+     * window coming from different messages of the batch end up in a single metric.
+     * With {@code check.window.enabled} the state is the partition's long-lived
+     * {@link MetricWindowStore} instead, and only windows closed by the watermark are returned;
+     * {@code firstOffsets} holds each partition's first offset in the batch, which the
+     * windows it touches keep uncommitted until they are closed.
+     * Messages are serialized {@code FetchMessage}s and are extracted in a single streaming
+     * pass. A message that fails extraction is logged and skipped without affecting the rest, and
+     * the cardinality check runs once per partition over everything that was extracted.
+     */
+    public List<ProcessedMetric> process(Map<Integer, List<byte[]>> messagesByPartition, Map<Integer, Long> firstOffsets) {
+        Map<Integer, List<RawMetric>> admittedByPartition = new HashMap<>();
+
+        messagesByPartition.forEach((partition, messages) -> {
+            List<RawMetric> extracted = new ArrayList<>();
+            for (byte[] message : messages) {
+                try {
+                    extracted.addAll(extractor.extract(message));
+                } catch (Exception e) {
+                    log.error("Check skipped unparseable message on partition: {}, reason: {}", partition, e.getMessage());
+                }
+            }
+            admittedByPartition.put(partition, cardinalityGuard.filterAllowed(extracted));
+        });
+
+        return aggregate(admittedByPartition, firstOffsets);
+    }
+
+    public List<ProcessedMetric> closeIdleWindows() {
+        return windowStore.closeIdle();
+    }
+
+    public void idleWindowsPublished() {
+        windowStore.idlePublished();
+    }
+
+    public List<ProcessedMetric> closeWindows(Collection<Integer> partitions) {
+        return windowStore.closePartitions(partitions);
+    }
 
-        extractor.extract(message).stream()
-                .filter(cardinalityGuard::isAllowed)
-                .forEach(raw -> aggregator.aggregate(state, raw));
+    private List<ProcessedMetric> aggregate(Map<Integer, List<RawMetric>> rawByPartition, Map<Integer, Long> firstOffsets) {
+        if (windowStore.isEnabled()) {
+            List<ProcessedMetric> closed = new ArrayList<>();
+            rawByPartition.forEach((partition, raws) -> closed.addAll(windowStore.accept(partition, raws, firstOffsets.get(partition))));
+            return closed;
+        }
 
-        return List.copyOf(state.values());
+        Map<AggKey, AggregationState> state = new HashMap<>();
+        rawByPartition.values().forEach(raws -> raws.forEach(raw -> aggregator.aggregate(state, raw)));
+        return aggregator.emit(state.values());
     }
 }
@@ -0,0 +1,39 @@
+package com.metrics.services.check;
+
+import com.metrics.kafka.MessagePublisher;
+import com.metrics.models.check.ProcessedMetric;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+import static com.metrics.constants.Constants.KafkaConstants.METRICS_PROCESSED_TOPIC;
+
+@Component
+@Slf4j
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "check.window.enabled", havingValue = "true")
+public class CheckWindowScheduler {
+
+    private final CheckService checkService;
+    private final MessagePublisher messagePublisher;
+
+    @Scheduled(fixedDelayString = "${check.window.idleCheckIntervalMs}")
+    public void run() {
+        List<ProcessedMetric> closed = checkService.closeIdleWindows();
+        if (closed.isEmpty()) return;
+
+        log.debug("Closing {} idle windows", closed.size());
+        try {
+            messagePublisher.publishAll(METRICS_PROCESSED_TOPIC, closed, ProcessedMetric::getMetricName).join();
+        } catch (Exception e) {
+            // The windows are kept and handed out again by the next sweep
+            log.warn("Could not publish {} idle windows, retrying on the next sweep: {}", closed.size(), e.getMessage());
+            return;
+        }
+        checkService.idleWindowsPublished();
+    }
+}
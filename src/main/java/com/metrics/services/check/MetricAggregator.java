@@ -1,7 +1,7 @@
 package com.metrics.services.check;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.metrics.models.check.AggKey;
+import com.metrics.models.check.AggregationState;
 import com.metrics.models.check.ProcessedMetric;
 import com.metrics.models.check.RawMetric;
 import com.metrics.utils.TDigestSketch;
@@ -9,80 +9,66 @@ import org.springframework.stereotype.Component;
 
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
 @Component
 public class MetricAggregator {
 
-    private static final int WINDOW_SECONDS = 10;
+    static final int WINDOW_SECONDS = 10;
 
-    public void aggregate(Map<AggKey, ProcessedMetric> state, RawMetric raw) {
+    public void aggregate(Map<AggKey, AggregationState> state, RawMetric raw) {
         AggKey key = buildAggKey(raw);
 
         state.compute(key, (k, existing) -> {
             if (existing == null) {
-                return createInitialMetric(raw, k.getAlignedTs());
+                return createInitialState(raw, Instant.ofEpochSecond(k.getAlignedEpochSecond()));
             }
             applyAggregation(existing, raw);
             return existing;
         });
     }
 
-    private AggKey buildAggKey(RawMetric raw) {
-        return AggKey.builder()
-                .metricName(raw.getMetricName())
-                .metricType(raw.getMetricType())
-                .alignedTs(align(raw.getTimestamp()))
-                .seriesKey(buildSeriesKey(raw.getMetricName(), raw.getLabels()))
-                .build();
-    }
-
-    private String buildSeriesKey(String metricName, JsonNode labels) {
-        if (labels == null || labels.isEmpty()) {
-            return metricName;
+    public List<ProcessedMetric> emit(Collection<AggregationState> states) {
+        List<ProcessedMetric> result = new ArrayList<>(states.size());
+        for (AggregationState state : states) {
+            result.add(state.toProcessedMetric());
         }
-
-        List<String> parts = new ArrayList<>();
-        labels.fieldNames()
-                .forEachRemaining(f -> parts.add(f + "=" + labels.get(f).asText()));
-
-        Collections.sort(parts);
-        return metricName + "|" + String.join(",", parts);
+        return result;
     }
 
+    private AggKey buildAggKey(RawMetric raw) {
+        return new AggKey(raw.getSeriesId(), raw.getMetricType(), align(raw.getTimestamp()));
+    }
 
-    private Instant align(Instant ts) {
+    private long align(Instant ts) {
         long epoch = ts.getEpochSecond();
-        return Instant.ofEpochSecond((epoch / WINDOW_SECONDS) * WINDOW_SECONDS);
+        return (epoch / WINDOW_SECONDS) * WINDOW_SECONDS;
     }
 
-    private ProcessedMetric createInitialMetric(RawMetric raw, Instant alignedTs) {
-        ProcessedMetric metric = ProcessedMetric.builder()
+    private AggregationState createInitialState(RawMetric raw, Instant alignedTs) {
+        TDigestSketch sketch = TDigestSketch.create();
+        sketch.digest.add(raw.getValue());
+
+        return AggregationState.builder()
+                .seriesId(raw.getSeriesId())
                 .metricName(raw.getMetricName())
                 .metricType(raw.getMetricType())
-                .processedTimestamp(alignedTs)
+                .alignedTs(alignedTs)
                 .value(raw.getValue())
-                .labels(raw.getLabels())
+                .labels(raw.getLabelSet())
+                .sketch(sketch)
                 .build();
-
-        TDigestSketch sketch = TDigestSketch.create();
-        sketch.digest.add(raw.getValue());
-        metric.setSketch(sketch.serialize());
-
-        return metric;
     }
 
-    private void applyAggregation(ProcessedMetric existing, RawMetric raw) {
+    private void applyAggregation(AggregationState existing, RawMetric raw) {
         switch (existing.getMetricType()) {
             case COUNTER -> existing.setValue(existing.getValue() + raw.getValue());
             case GAUGE -> existing.setValue(raw.getValue());
             default -> throw new IllegalStateException("Unsupported metric type");
         }
 
-        TDigestSketch existingSketch = TDigestSketch.deserialize(existing.getSketch());
-        existingSketch.digest.add(raw.getValue());
-        existing.setSketch(existingSketch.serialize());
+        existing.getSketch().digest.add(raw.getValue());
     }
 }
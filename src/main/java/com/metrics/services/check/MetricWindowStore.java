@@ -0,0 +1,196 @@
+package com.metrics.services.check;
+
+import com.metrics.config.AppConfigStore;
+import com.metrics.models.check.AggKey;
+import com.metrics.models.check.AggregationState;
+import com.metrics.models.check.ProcessedMetric;
+import com.metrics.models.check.RawMetric;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.metrics.services.check.MetricAggregator.WINDOW_SECONDS;
+
+/**
+ * Long-lived window state, one instance per {@code metrics-raw} partition. Windows stay
+ * open across messages and are closed once the partition's event-time watermark
+ * (max event time seen minus {@code check.window.allowedLateness}) passes their end.
+ * Samples arriving for an already closed window are emitted as an extra row for that
+ * window instead of being dropped.
+ * <p>
+ * Event time only counts up to {@code check.window.maxClockSkew} ahead of the wall clock.
+ * Samples further ahead are dropped, so a single far-future timestamp can neither close
+ * every open window nor keep a window (and the committed offset) open indefinitely.
+ * <p>
+ * Each open window remembers the first offset that contributed to it, and
+ * {@link #firstOpenOffset} tells {@link CheckOffsetCommitter} not to commit past it, so
+ * open windows are rebuilt from Kafka after a crash.
+ */
+@Component
+@Slf4j
+public class MetricWindowStore {
+
+    private final MetricAggregator aggregator;
+    private final AppConfigStore appConfigStore;
+    private final Counter futureDropped;
+
+    private final Map<Integer, PartitionWindows> partitions = new ConcurrentHashMap<>();
+
+    public MetricWindowStore(MetricAggregator aggregator, AppConfigStore appConfigStore, MeterRegistry meterRegistry) {
+        this.aggregator = aggregator;
+        this.appConfigStore = appConfigStore;
+        this.futureDropped = meterRegistry.counter("metrics.check.window.future.dropped");
+    }
+
+    public boolean isEnabled() {
+        return appConfigStore.isWindowEnabled();
+    }
+
+    /**
+     * Adds samples read from {@code partition} starting at {@code firstOffset} and returns
+     * the windows the advanced watermark closed.
+     */
+    public List<ProcessedMetric> accept(int partition, List<RawMetric> raws, long firstOffset) {
+        PartitionWindows windows = partitions.computeIfAbsent(partition, p -> new PartitionWindows());
+        long maxEventTime = System.currentTimeMillis() / 1000 + appConfigStore.getWindowMaxClockSkew().getSeconds();
+
+        synchronized (windows) {
+            int dropped = 0;
+            for (RawMetric raw : raws) {
+                long eventTime = raw.getTimestamp().getEpochSecond();
+                if (eventTime > maxEventTime) {
+                    dropped++;
+                    continue;
+                }
+                aggregator.aggregate(windows.open, raw);
+                windows.firstOffsets.merge(eventTime / WINDOW_SECONDS * WINDOW_SECONDS, firstOffset, Math::min);
+                windows.maxEventTime = Math.max(windows.maxEventTime, eventTime);
+            }
+            windows.lastActivity = System.currentTimeMillis();
+
+            if (dropped > 0) {
+                futureDropped.increment(dropped);
+                log.warn("Dropped {} samples on partition {} more than {} ahead of the clock",
+                        dropped, partition, appConfigStore.getWindowMaxClockSkew());
+            }
+
+            if (windows.maxEventTime == Long.MIN_VALUE) {
+                return List.of();
+            }
+            long watermark = windows.maxEventTime - appConfigStore.getWindowAllowedLateness().getSeconds();
+            return windows.closeUpTo(watermark);
+        }
+    }
+
+    /**
+     * First offset of {@code partition} that still contributes to an open window, or
+     * {@code null} if none does.
+     */
+    public Long firstOpenOffset(int partition) {
+        PartitionWindows windows = partitions.get(partition);
+        if (windows == null) return null;
+
+        synchronized (windows) {
+            Long first = windows.unpublished;
+            for (Long offset : windows.firstOffsets.values()) {
+                if (first == null || offset < first) first = offset;
+            }
+            return first;
+        }
+    }
+
+    /**
+     * Closes every window of partitions that have not received data within
+     * {@code check.window.idleTimeout}, since their watermark cannot advance on its own.
+     * Their offsets stay uncommittable until {@link #idlePublished()} is called; until
+     * then the windows are kept and returned again by the next call, so a failed publish
+     * is retried on the next sweep instead of holding the offsets back for good.
+     */
+    public List<ProcessedMetric> closeIdle() {
+        long idleBefore = System.currentTimeMillis() - appConfigStore.getWindowIdleTimeout().toMillis();
+        List<ProcessedMetric> closed = new ArrayList<>();
+
+        for (PartitionWindows windows : partitions.values()) {
+            synchronized (windows) {
+                if (windows.lastActivity < idleBefore && !windows.open.isEmpty()) {
+                    Long first = windows.firstOffsets.isEmpty() ? null : Collections.min(windows.firstOffsets.values());
+                    if (first != null && (windows.unpublished == null || first < windows.unpublished)) {
+                        windows.unpublished = first;
+                    }
+                    windows.idleClosed.addAll(windows.closeUpTo(Long.MAX_VALUE));
+                }
+                closed.addAll(windows.idleClosed);
+            }
+        }
+        return closed;
+    }
+
+    /**
+     * Releases the offsets held back by the last {@link #closeIdle()} once its windows
+     * are published.
+     */
+    public void idlePublished() {
+        for (PartitionWindows windows : partitions.values()) {
+            synchronized (windows) {
+                windows.idleClosed.clear();
+                windows.unpublished = null;
+            }
+        }
+    }
+
+    public List<ProcessedMetric> closePartitions(Collection<Integer> revoked) {
+        List<ProcessedMetric> closed = new ArrayList<>();
+
+        for (Integer partition : revoked) {
+            PartitionWindows windows = partitions.remove(partition);
+            if (windows == null) continue;
+
+            synchronized (windows) {
+                closed.addAll(windows.idleClosed);
+                closed.addAll(windows.closeUpTo(Long.MAX_VALUE));
+            }
+        }
+        return closed;
+    }
+
+    private class PartitionWindows {
+        final Map<AggKey, AggregationState> open = new HashMap<>();
+        final TreeMap<Long, Long> firstOffsets = new TreeMap<>();
+        // Closed by an idle sweep, not yet published; offsets held back by unpublished
+        final List<ProcessedMetric> idleClosed = new ArrayList<>();
+        Long unpublished;
+        long maxEventTime = Long.MIN_VALUE;
+        long lastActivity = System.currentTimeMillis();
+
+        List<ProcessedMetric> closeUpTo(long watermark) {
+            List<AggregationState> closed = new ArrayList<>();
+
+            Iterator<AggregationState> it = open.values().iterator();
+            while (it.hasNext()) {
+                AggregationState state = it.next();
+                if (watermark == Long.MAX_VALUE || state.getAlignedTs().getEpochSecond() + WINDOW_SECONDS <= watermark) {
+                    closed.add(state);
+                    it.remove();
+                }
+            }
+
+            if (watermark == Long.MAX_VALUE) {
+                firstOffsets.clear();
+            } else {
+                firstOffsets.headMap(watermark - WINDOW_SECONDS, true).clear();
+            }
+            return aggregator.emit(closed);
+        }
+    }
+}
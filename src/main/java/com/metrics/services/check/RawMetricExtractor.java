@@ -1,20 +1,39 @@
 package com.metrics.services.check;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.metrics.models.check.LabelSet;
 import com.metrics.models.common.MetricType;
 import com.metrics.models.fetch.FetchMessage;
 import com.metrics.models.check.RawMetric;
+import com.metrics.utils.TimeUtils;
+import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.metrics.models.common.MetricType.COUNTER;
 
 @Component
+@RequiredArgsConstructor
 public class RawMetricExtractor {
 
+    private static final int MAX_CACHED_NAMES = 100_000;
+
+    private final SeriesRegistry seriesRegistry;
+    private final ObjectMapper objectMapper;
+
+    // serviceId -> raw metric name -> "serviceId:metricName"
+    private final Map<String, Map<String, String>> metricNames = new ConcurrentHashMap<>();
+
     public List<RawMetric> extract(FetchMessage message) {
         JsonNode metricsNode = message.getRawPayload().get("metrics");
         if (metricsNode == null || !metricsNode.isArray()) {
@@ -33,11 +52,152 @@ public class RawMetricExtractor {
         return result;
     }
 
+    /**
+     * Single-pass extraction straight from a serialized {@link FetchMessage}, without
+     * building the message or its payload tree. Produces the same metrics as
+     * {@link #extract(FetchMessage)}; {@code serviceId} may appear before or after
+     * {@code rawPayload}.
+     */
+    public List<RawMetric> extract(byte[] message) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(message)) {
+            return extract(parser);
+        }
+    }
+
+    public List<RawMetric> extract(String message) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(message)) {
+            return extract(parser);
+        }
+    }
+
+    private List<RawMetric> extract(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Fetch message is not a JSON object");
+        }
+
+        String serviceId = null;
+        List<RawMetric> result = new ArrayList<>();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+
+            if ("serviceId".equals(field)) {
+                serviceId = token == JsonToken.VALUE_NULL ? null : parser.getText();
+            } else if ("rawPayload".equals(field) && token == JsonToken.START_OBJECT) {
+                readPayload(parser, result);
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        for (RawMetric raw : result) {
+            String metricName = metricName(serviceId, raw.getMetricName());
+            raw.setMetricName(metricName);
+            raw.setSeriesId(seriesRegistry.seriesId(metricName, raw.getLabelSet()));
+        }
+        return result;
+    }
+
+    private void readPayload(JsonParser parser, List<RawMetric> result) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+
+            if ("metrics".equals(field) && token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    RawMetric raw = readMetric(parser);
+                    if (COUNTER.equals(raw.getMetricType()) && raw.getValue() <= 0) continue;
+
+                    result.add(raw);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    // Leaves the bare metric name in place; the service prefix and series ID are applied
+    // once the whole message (and therefore serviceId) has been read.
+    private RawMetric readMetric(JsonParser parser) throws IOException {
+        RawMetric raw = new RawMetric();
+        raw.setLabelSet(LabelSet.EMPTY);
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+
+            switch (field) {
+                case "metricName" -> raw.setMetricName(parser.getText());
+                case "metricType" -> raw.setMetricType(MetricType.fromValue(parser.getText()));
+                case "value" -> raw.setValue(parser.getValueAsDouble());
+                case "timestamp" -> raw.setTimestamp(TimeUtils.parseIsoInstant(parser.getText()));
+                case "labels" -> {
+                    if (token == JsonToken.START_OBJECT) {
+                        raw.setLabelSet(readLabels(parser));
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+
+        if (raw.getMetricName() == null || raw.getMetricType() == null || raw.getTimestamp() == null) {
+            throw new IOException("Metric is missing metricName, metricType or timestamp");
+        }
+        return raw;
+    }
+
+    private LabelSet readLabels(JsonParser parser) throws IOException {
+        String[] keys = new String[8];
+        String[] values = new String[8];
+        int size = 0;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.currentName();
+            JsonToken token = parser.nextToken();
+
+            String value;
+            if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                value = "";
+            } else if (token == JsonToken.VALUE_NULL) {
+                value = "null";
+            } else {
+                value = parser.getText();
+            }
+
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            keys[size] = seriesRegistry.intern(key);
+            values[size] = seriesRegistry.intern(value);
+            size++;
+        }
+
+        return seriesRegistry.intern(LabelSet.sorted(keys, values, size));
+    }
+
+    private String metricName(String serviceId, String name) {
+        Map<String, String> names = metricNames.computeIfAbsent(String.valueOf(serviceId), s -> new ConcurrentHashMap<>());
+        if (names.size() >= MAX_CACHED_NAMES) {
+            names.clear();
+        }
+        return names.computeIfAbsent(name, n -> serviceId + ":" + n);
+    }
+
     private RawMetric parse(JsonNode node, String serviceId) {
+        String metricName = serviceId + ":" + node.get("metricName").asText();
+        LabelSet labelSet = seriesRegistry.labels(node.get("labels"));
+
         return RawMetric.builder()
-                .metricName(serviceId + ":" + node.get("metricName").asText())
+                .metricName(metricName)
                 .metricType(MetricType.valueOf(node.get("metricType").asText().toUpperCase()))
                 .labels(node.get("labels"))
+                .labelSet(labelSet)
+                .seriesId(seriesRegistry.seriesId(metricName, labelSet))
                 .value(node.get("value").asDouble())
                 .timestamp(Instant.parse(node.get("timestamp").asText()))
                 .build();
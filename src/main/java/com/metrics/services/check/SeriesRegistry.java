@@ -0,0 +1,92 @@
+package com.metrics.services.check;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.metrics.models.check.LabelSet;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps a metric name and canonical {@link LabelSet} to a stable 64-bit series ID and
+ * interns label strings and label sets, so the ingest path can key everything by ID
+ * instead of building and sorting series-key strings per sample.
+ * <p>
+ * IDs are a pure function of the name and labels (FNV-1a 64 with a murmur3 finalizer),
+ * so every instance and every restart derives the same ID for the same series. The name
+ * and every label key and value are hashed with a length prefix, so the same characters
+ * split differently, e.g. {@code {a="x|b=y"}} and {@code {a="x", b="y"}}, are different
+ * inputs rather than a guaranteed collision.
+ */
+@Component
+public class SeriesRegistry {
+
+    private static final int MAX_INTERNED = 1_000_000;
+
+    private final Map<String, String> strings = new ConcurrentHashMap<>();
+    private final Map<LabelSet, LabelSet> labelSets = new ConcurrentHashMap<>();
+
+    public LabelSet labels(JsonNode labels) {
+        if (labels == null || labels.isEmpty()) {
+            return LabelSet.EMPTY;
+        }
+
+        int size = labels.size();
+        String[] keys = new String[size];
+        String[] values = new String[size];
+
+        int i = 0;
+        Iterator<Map.Entry<String, JsonNode>> fields = labels.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            keys[i] = intern(field.getKey());
+            values[i] = intern(field.getValue().asText());
+            i++;
+        }
+
+        return intern(LabelSet.sorted(keys, values, i));
+    }
+
+    public LabelSet intern(LabelSet labelSet) {
+        if (labelSets.size() >= MAX_INTERNED) {
+            labelSets.clear();
+        }
+        LabelSet existing = labelSets.putIfAbsent(labelSet, labelSet);
+        return existing != null ? existing : labelSet;
+    }
+
+    public String intern(String value) {
+        if (strings.size() >= MAX_INTERNED) {
+            strings.clear();
+        }
+        String existing = strings.putIfAbsent(value, value);
+        return existing != null ? existing : value;
+    }
+
+    public long seriesId(String metricName, LabelSet labels) {
+        long h = 0xcbf29ce484222325L;
+        h = hash(h, metricName);
+        for (int i = 0; i < labels.size(); i++) {
+            h = hash(h, labels.key(i));
+            h = hash(h, labels.value(i));
+        }
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long hash(long h, String value) {
+        h ^= value.length();
+        h *= 0x100000001b3L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
@@ -43,7 +43,7 @@ public class FetchService {
                     .rawPayload(payload)
                     .build();
 
-            messagePublisher.publish(METRICS_RAW_TOPIC, service.getId(), message);
+            messagePublisher.publish(METRICS_RAW_TOPIC, service.getId(), message).join();
 
         } catch (Exception e) {
             log.error("Fetch failed for service {}, reason: {}", service.getId(), e.getMessage(), e);
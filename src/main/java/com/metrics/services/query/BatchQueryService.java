@@ -0,0 +1,201 @@
+package com.metrics.services.query;
+
+import com.metrics.config.AppConfigStore;
+import com.metrics.exceptions.InvalidQueryException;
+import com.metrics.exceptions.QueryBatchTooLargeException;
+import com.metrics.exceptions.QueryGroupLimitException;
+import com.metrics.models.common.RollupTier;
+import com.metrics.models.query.BatchQueryRequest;
+import com.metrics.models.query.BatchQueryResponse;
+import com.metrics.models.query.BatchQueryResult;
+import com.metrics.models.query.QueryRequest;
+import com.metrics.services.store.RollupCoverage;
+import com.metrics.utils.TimeUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many queries in one request. Queries on the same metric and aligned range form a
+ * group that is answered by a single {@link SharedScan} over the union of their series.
+ * <p>
+ * Groups run concurrently on a pool of {@code query.batch.parallelism} threads. A query
+ * that is invalid or whose group fails gets an error entry; the others still succeed.
+ * Batch queries bypass {@link QueryResultCache}.
+ */
+@Service
+@Slf4j
+public class BatchQueryService {
+
+    private final MetricQueryRepository repository;
+    private final SketchMergeEngine sketchMergeEngine;
+    private final RollupCoverage rollupCoverage;
+    private final AppConfigStore appConfigStore;
+    private final ExecutorService executor;
+
+    private final Counter queries;
+    private final Counter scans;
+
+    public BatchQueryService(
+            MetricQueryRepository repository,
+            SketchMergeEngine sketchMergeEngine,
+            RollupCoverage rollupCoverage,
+            AppConfigStore appConfigStore,
+            MeterRegistry meterRegistry
+    ) {
+        this.repository = repository;
+        this.sketchMergeEngine = sketchMergeEngine;
+        this.rollupCoverage = rollupCoverage;
+        this.appConfigStore = appConfigStore;
+
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(appConfigStore.getQueryBatchParallelism(),
+                task -> new Thread(task, "metrics-query-batch-" + threads.incrementAndGet()));
+
+        this.queries = meterRegistry.counter("metrics.query.batch.queries");
+        this.scans = meterRegistry.counter("metrics.query.batch.scans");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public BatchQueryResponse execute(BatchQueryRequest request) {
+        List<QueryRequest> requests = request.getQueries() == null ? List.of() : request.getQueries();
+        if (requests.size() > appConfigStore.getQueryBatchMaxQueries()) {
+            throw new QueryBatchTooLargeException(requests.size(), appConfigStore.getQueryBatchMaxQueries());
+        }
+
+        BatchQueryResult[] results = new BatchQueryResult[requests.size()];
+        Map<ScanKey, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            QueryRequest query = requests.get(i);
+            String invalid = validate(query);
+            if (invalid != null) {
+                results[i] = BatchQueryResult.failed(invalid);
+                continue;
+            }
+            groups.computeIfAbsent(ScanKey.of(query, appConfigStore.isQueryHourlyStepEnabled()), k -> new ArrayList<>()).add(i);
+        }
+
+        List<CompletableFuture<Void>> pending = new ArrayList<>(groups.size());
+        groups.forEach((key, indexes) -> pending.add(CompletableFuture
+                .runAsync(() -> scan(key, indexes, requests, results), executor)
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    log.warn("Batch scan of {} failed: {}", key.metricName, cause.getMessage());
+                    indexes.forEach(i -> results[i] = BatchQueryResult.failed(cause.getMessage()));
+                    return null;
+                })));
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).join();
+
+        queries.increment(requests.size());
+        return new BatchQueryResponse(Arrays.asList(results));
+    }
+
+    private void scan(ScanKey key, List<Integer> indexes, List<QueryRequest> requests, BatchQueryResult[] results) {
+        RollupTier tier = rollupCoverage.tierFor(Duration.ofSeconds(key.step), key.from);
+        SharedScan scan = new SharedScan(repository, sketchMergeEngine, key.metricName, key.from, key.to, key.step,
+                tier, appConfigStore.getQueryGroupByMaxGroups());
+
+        SharedScan.Result[] handles = new SharedScan.Result[indexes.size()];
+        for (int a = 0; a < handles.length; a++) {
+            try {
+                handles[a] = scan.add(requests.get(indexes.get(a)));
+            } catch (InvalidQueryException | QueryGroupLimitException e) {
+                results[indexes.get(a)] = BatchQueryResult.failed(e.getMessage());
+            }
+        }
+
+        if (scan.run()) {
+            scans.increment();
+        }
+        for (int a = 0; a < handles.length; a++) {
+            if (handles[a] != null) {
+                results[indexes.get(a)] = BatchQueryResult.of(handles[a].response());
+            }
+        }
+    }
+
+    /**
+     * Scans {@code request} can run at once: one per distinct metric and range, at most
+     * {@code query.batch.parallelism}.
+     */
+    public int concurrency(BatchQueryRequest request) {
+        List<QueryRequest> requests = request.getQueries() == null ? List.of() : request.getQueries();
+        Set<ScanKey> keys = new HashSet<>();
+        for (QueryRequest query : requests) {
+            if (validate(query) == null) {
+                keys.add(ScanKey.of(query, appConfigStore.isQueryHourlyStepEnabled()));
+            }
+        }
+        return Math.max(1, Math.min(keys.size(), appConfigStore.getQueryBatchParallelism()));
+    }
+
+    private static String validate(QueryRequest query) {
+        if (query == null) return "Query is empty";
+        if (query.getMetricName() == null) return "metricName is required";
+        if (query.getOperation() == null) return "operation is required";
+        if (query.getFrom() == null || query.getTo() == null) return "from and to are required";
+        if (query.getFrom().isAfter(query.getTo())) return "from must not be after to";
+        return null;
+    }
+
+    /**
+     * Metric and step-aligned range shared by the queries of one scan.
+     */
+    private static final class ScanKey {
+
+        final String metricName;
+        final long from;
+        final long to;
+        final long step;
+
+        private ScanKey(String metricName, long from, long to, long step) {
+            this.metricName = metricName;
+            this.from = from;
+            this.to = to;
+            this.step = step;
+        }
+
+        static ScanKey of(QueryRequest query, boolean hourlyStep) {
+            Duration step = TimeUtils.chooseStep(query.getFrom(), query.getTo(), hourlyStep);
+            return new ScanKey(
+                    query.getMetricName(),
+                    TimeUtils.alignDown(query.getFrom(), step).getEpochSecond(),
+                    TimeUtils.alignDown(query.getTo(), step).getEpochSecond(),
+                    step.getSeconds()
+            );
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ScanKey other)) return false;
+            return from == other.from && to == other.to && step == other.step && metricName.equals(other.metricName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(metricName, from, to, step);
+        }
+    }
+}
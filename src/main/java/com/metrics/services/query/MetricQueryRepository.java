@@ -1,66 +1,163 @@
 package com.metrics.services.query;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.metrics.config.AppConfigStore;
 import com.metrics.models.common.Operation;
-import com.metrics.models.query.QueryRequest;
-import lombok.RequiredArgsConstructor;
+import com.metrics.models.common.RollupTier;
+import com.metrics.models.query.BucketSeries;
+import org.postgresql.PGStatement;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.time.Instant;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import static com.metrics.constants.Constants.SqlConstants.AVG_SQL;
-import static com.metrics.constants.Constants.SqlConstants.P95_SQL;
-import static com.metrics.constants.Constants.SqlConstants.RATE_SQL;
-import static com.metrics.constants.Constants.SqlConstants.SUM_SQL;
-
 @Repository
-@RequiredArgsConstructor
 public class MetricQueryRepository {
 
+    // Query shapes render to a fixed text, so they are prepared server-side on first use
+    private static final int PREPARE_THRESHOLD = 1;
+
     private final JdbcTemplate jdbcTemplate;
+    private final QuerySqlBuilder sqlBuilder;
+    private final TransactionTemplate readOnlyTransaction;
     private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final TypeReference<Map<String, String>> LABELS_TYPE = new TypeReference<>() {};
 
-    public List<Map<String, Object>> query(String sql, Object[] args) {
-        return jdbcTemplate.queryForList(sql, args);
+    public MetricQueryRepository(
+            JdbcTemplate jdbcTemplate,
+            QuerySqlBuilder sqlBuilder,
+            PlatformTransactionManager transactionManager,
+            AppConfigStore appConfigStore
+    ) {
+        // A template of its own, so the statement timeout and prepare threshold never apply
+        // to store writes
+        this.jdbcTemplate = new JdbcTemplate(jdbcTemplate.getDataSource()) {
+            @Override
+            protected void applyStatementSettings(Statement statement) throws SQLException {
+                super.applyStatementSettings(statement);
+                if (statement.isWrapperFor(PGStatement.class)) {
+                    statement.unwrap(PGStatement.class).setPrepareThreshold(PREPARE_THRESHOLD);
+                }
+            }
+        };
+        this.jdbcTemplate.setQueryTimeout((int) appConfigStore.getQueryGovernorStatementTimeout().toSeconds());
+        this.sqlBuilder = sqlBuilder;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
     }
 
-    public String build(Operation operation) {
-        return switch (operation) {
-            case SUM  -> SUM_SQL;
-            case AVG  -> AVG_SQL;
-            case RATE -> RATE_SQL;
-            case P95  -> P95_SQL;
-            default -> throw new IllegalArgumentException("Unsupported operation: " + operation);
-        };
+    /**
+     * Writes each {@code (bucket_epoch, value)} row straight into {@code series}.
+     */
+    public void queryInto(String sql, Object[] args, BucketSeries series) {
+        jdbcTemplate.query(sql, (RowCallbackHandler) rs -> {
+            double value = rs.getDouble("value");
+            if (!rs.wasNull()) {
+                series.set(rs.getLong("bucket_epoch"), value);
+            }
+        }, args);
     }
 
-    public Object[] args(QueryRequest request, Instant from, Instant to, long stepSeconds, Operation operation) {
-        String labelsJson = toJson(request.getLabels());
-
-        if (operation == Operation.RATE) {
-            return new Object[] {
-                    stepSeconds,
-                    stepSeconds,
-                    stepSeconds,
-                    request.getMetricName(),
-                    java.sql.Timestamp.from(from),
-                    java.sql.Timestamp.from(to),
-                    labelsJson,
-                    labelsJson
-            };
-        }
+    /**
+     * Hands each {@code (bucket_epoch, sketch)} row to {@code sink} as it is read. Runs in
+     * a read-only transaction because PgJDBC only fetches in {@code defaultRowFetchSize}
+     * batches with auto-commit off; otherwise the whole result is buffered first.
+     */
+    public void streamSketches(String sql, Object[] args, SketchSink sink) {
+        readOnlyTransaction.executeWithoutResult(status ->
+                jdbcTemplate.query(sql, (RowCallbackHandler) rs ->
+                        sink.accept(rs.getLong("bucket_epoch"), rs.getBytes("sketch")), args));
+    }
+
+    /**
+     * Streams the rows of a batch scan built by {@link #buildScan}. {@code sketch} is
+     * {@code null} unless {@code withSketch} is set.
+     */
+    public void scan(String sql, Object[] args, boolean withSketch, ScanSink sink) {
+        readOnlyTransaction.executeWithoutResult(status ->
+                jdbcTemplate.query(sql, (RowCallbackHandler) rs -> sink.accept(
+                        rs.getLong("bucket_epoch"),
+                        rs.getLong("series_id"),
+                        rs.getDouble("value_sum"),
+                        rs.getLong("value_count"),
+                        withSketch ? rs.getBytes("sketch") : null), args));
+    }
+
+    @FunctionalInterface
+    public interface SketchSink {
+        void accept(long bucketEpoch, byte[] sketch);
+    }
+
+    @FunctionalInterface
+    public interface ScanSink {
+        void accept(long bucketEpoch, long seriesId, double valueSum, long valueCount, byte[] sketch);
+    }
+
+    /**
+     * Resolves the metric name and label filter to series IDs against the {@code series}
+     * dictionary, so the sample scan is a plain {@code series_id} lookup.
+     */
+    public List<Long> resolveSeries(String metricName, Map<String, String> labels) {
+        String labelsJson = toJson(labels);
+        return labelsJson == null
+                ? jdbcTemplate.queryForList(sqlBuilder.series(false), Long.class, metricName)
+                : jdbcTemplate.queryForList(sqlBuilder.series(true), Long.class, metricName, labelsJson);
+    }
+
+    /**
+     * Like {@link #resolveSeries} but also returns each series' full label set, for
+     * grouping by label values.
+     */
+    public Map<Long, Map<String, String>> resolveSeriesLabels(String metricName, Map<String, String> labels) {
+        String labelsJson = toJson(labels);
+        Object[] args = labelsJson == null ? new Object[] {metricName} : new Object[] {metricName, labelsJson};
+        Map<Long, Map<String, String>> result = new HashMap<>();
+        jdbcTemplate.query(sqlBuilder.seriesLabels(labelsJson != null), (RowCallbackHandler) rs -> {
+            try {
+                result.put(rs.getLong("series_id"), objectMapper.readValue(rs.getString("labels"), LABELS_TYPE));
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Unreadable labels of series " + rs.getLong("series_id"), e);
+            }
+        }, args);
+        return result;
+    }
+
+    /**
+     * Bucketed values for {@code operation} from raw samples, or from {@code tier} when
+     * set; takes the arguments of {@link #args}.
+     */
+    public String build(Operation operation, RollupTier tier, long stepSeconds) {
+        return sqlBuilder.samples(operation, tier, stepSeconds);
+    }
+
+    /**
+     * Batch scan returning per-series {@code value_sum} and {@code value_count} for every
+     * bucket, plus the raw {@code sketch} rows when {@code withSketch} is set; takes the
+     * arguments of {@link #args}.
+     */
+    public String buildScan(boolean withSketch, RollupTier tier, long stepSeconds) {
+        return sqlBuilder.scan(withSketch, tier, stepSeconds);
+    }
 
+    /**
+     * Binds {@code [from, end)}; pass the end of the last bucket as {@code end}, so raw
+     * samples and rollup tiers both fill it completely.
+     */
+    public Object[] args(List<Long> seriesIds, Instant from, Instant end) {
         return new Object[] {
-                stepSeconds,
-                stepSeconds,
-                request.getMetricName(),
+                seriesIds.toArray(new Long[0]),
                 java.sql.Timestamp.from(from),
-                java.sql.Timestamp.from(to),
-                labelsJson,
-                labelsJson
+                java.sql.Timestamp.from(end)
         };
     }
 
@@ -0,0 +1,216 @@
+package com.metrics.services.query;
+
+import com.metrics.config.AppConfigStore;
+import com.metrics.exceptions.QueryBudgetExceededException;
+import com.metrics.exceptions.QueryRejectedException;
+import com.metrics.models.common.Operation;
+import com.metrics.models.common.RollupTier;
+import com.metrics.models.query.QueryRequest;
+import com.metrics.services.store.RollupCoverage;
+import com.metrics.utils.TimeUtils;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Admission control for queries, so that expensive or bursty reads cannot take the whole
+ * Hikari pool away from the store.
+ * <p>
+ * {@link #estimate} prices a query before it runs. The cost is the estimated number of
+ * rows read per series, from the range and the resolution of the table it will read (a
+ * rollup tier, or raw samples every {@code query.governor.sampleInterval}). Sketch
+ * operations are weighted by {@value #SKETCH_WEIGHT} because every row is deserialized
+ * and merged. Queries above {@code maxCost} or {@code maxPoints} are rejected with 422.
+ * <p>
+ * {@link #run} then admits queries into {@code maxConcurrent} slots, and at most
+ * {@code maxConcurrentPerClient} queries per client. A query takes one slot; a batch takes
+ * one per scan it runs in parallel. Queries beyond the global limit wait up to
+ * {@code queueTimeout}, with at most {@code maxQueued} waiting; everything else is
+ * rejected with 429. Statements are cancelled after {@code statementTimeout} (see
+ * {@link MetricQueryRepository}), which is also reported as over budget.
+ */
+@Component
+@Slf4j
+public class QueryGovernor {
+
+    private static final long SKETCH_WEIGHT = 10;
+
+    private final AppConfigStore appConfigStore;
+    private final RollupCoverage rollupCoverage;
+    private final MeterRegistry meterRegistry;
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Map<String, Integer> activeByClient = new ConcurrentHashMap<>();
+
+    private final DistributionSummary estimatedCost;
+    private final DistributionSummary costRatio;
+    private final Timer duration;
+
+    public QueryGovernor(AppConfigStore appConfigStore, RollupCoverage rollupCoverage, MeterRegistry meterRegistry) {
+        this.appConfigStore = appConfigStore;
+        this.rollupCoverage = rollupCoverage;
+        this.meterRegistry = meterRegistry;
+        this.permits = new Semaphore(appConfigStore.getQueryGovernorMaxConcurrent(), true);
+
+        meterRegistry.gauge("metrics.query.governor.queue.depth", queued, AtomicInteger::get);
+        meterRegistry.gauge("metrics.query.governor.active", permits,
+                p -> appConfigStore.getQueryGovernorMaxConcurrent() - p.availablePermits());
+        this.estimatedCost = meterRegistry.summary("metrics.query.governor.cost.estimated");
+        this.costRatio = meterRegistry.summary("metrics.query.governor.cost.ratio");
+        this.duration = meterRegistry.timer("metrics.query.governor.duration");
+    }
+
+    /**
+     * Estimated cost of {@code request}. Incomplete requests cost nothing here and are
+     * left to fail validation downstream.
+     *
+     * @throws QueryBudgetExceededException if the cost or point count is over budget
+     */
+    public long estimate(QueryRequest request) {
+        if (request == null || request.getFrom() == null || request.getTo() == null || request.getOperation() == null
+                || request.getFrom().isAfter(request.getTo())) {
+            return 0;
+        }
+
+        Duration step = TimeUtils.chooseStep(request.getFrom(), request.getTo(), appConfigStore.isQueryHourlyStepEnabled());
+        long range = Duration.between(request.getFrom(), request.getTo()).getSeconds();
+
+        long points = (range / step.getSeconds() + 1) * outputs(request);
+        if (points > appConfigStore.getQueryGovernorMaxPoints()) {
+            reject("points");
+            throw new QueryBudgetExceededException(String.format(
+                    "%d points exceed the limit of %d", points, appConfigStore.getQueryGovernorMaxPoints()));
+        }
+
+        RollupTier tier = rollupCoverage.tierFor(step, TimeUtils.alignDown(request.getFrom(), step).getEpochSecond());
+        long resolution = tier != null ? tier.getSeconds() : appConfigStore.getQueryGovernorSampleInterval().getSeconds();
+        long cost = (range / Math.max(1, resolution) + 1) * weight(request.getOperation());
+        if (cost > appConfigStore.getQueryGovernorMaxCost()) {
+            reject("cost");
+            throw new QueryBudgetExceededException(String.format(
+                    "estimated cost %d of %s over %s exceeds the limit of %d; narrow the range or enable rollups",
+                    cost, request.getOperation(), Duration.ofSeconds(range), appConfigStore.getQueryGovernorMaxCost()));
+        }
+        return cost;
+    }
+
+    /**
+     * Total cost of a batch, which is admitted as one query.
+     */
+    public long estimate(List<QueryRequest> requests) {
+        long cost = 0;
+        for (QueryRequest request : requests) {
+            cost += estimate(request);
+        }
+        return cost;
+    }
+
+    /**
+     * Runs {@code query} once {@code client} is admitted.
+     *
+     * @throws QueryRejectedException if the client or the whole service is at its limit
+     */
+    public <T> T run(String client, long cost, Supplier<T> query) {
+        return run(client, cost, 1, query);
+    }
+
+    /**
+     * Runs {@code query}, which uses up to {@code slots} connections at once, once
+     * {@code client} is admitted; it holds that many of the {@code maxConcurrent} slots.
+     *
+     * @throws QueryRejectedException if the client or the whole service is at its limit
+     */
+    public <T> T run(String client, long cost, int slots, Supplier<T> query) {
+        int held = Math.max(1, Math.min(slots, appConfigStore.getQueryGovernorMaxConcurrent()));
+        acquireClient(client);
+        try {
+            acquireGlobal(held);
+            long start = System.nanoTime();
+            try {
+                return query.get();
+            } catch (QueryTimeoutException e) {
+                reject("timeout");
+                throw new QueryBudgetExceededException(String.format(
+                        "statement timeout of %s exceeded", appConfigStore.getQueryGovernorStatementTimeout()));
+            } finally {
+                permits.release(held);
+                long elapsed = System.nanoTime() - start;
+                duration.record(elapsed, TimeUnit.NANOSECONDS);
+                if (cost > 0) {
+                    // Milliseconds per cost unit; a wide spread means the estimate predicts poorly
+                    estimatedCost.record(cost);
+                    costRatio.record(TimeUnit.NANOSECONDS.toMicros(elapsed) / 1000.0 / cost);
+                }
+            }
+        } finally {
+            activeByClient.computeIfPresent(client, (c, active) -> active > 1 ? active - 1 : null);
+        }
+    }
+
+    private void acquireClient(String client) {
+        int active = activeByClient.merge(client, 1, Integer::sum);
+        if (active > appConfigStore.getQueryGovernorMaxConcurrentPerClient()) {
+            activeByClient.computeIfPresent(client, (c, n) -> n > 1 ? n - 1 : null);
+            reject("client_limit");
+            throw new QueryRejectedException(String.format(
+                    "client %s already runs %d queries", client, appConfigStore.getQueryGovernorMaxConcurrentPerClient()));
+        }
+    }
+
+    private void acquireGlobal(int slots) {
+        if (permits.tryAcquire(slots)) return;
+
+        if (queued.incrementAndGet() > appConfigStore.getQueryGovernorMaxQueued()) {
+            queued.decrementAndGet();
+            reject("queue_full");
+            throw new QueryRejectedException("too many queries are waiting");
+        }
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(slots, appConfigStore.getQueryGovernorQueueTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        } finally {
+            queued.decrementAndGet();
+        }
+        if (!acquired) {
+            reject("wait_timeout");
+            throw new QueryRejectedException(String.format(
+                    "no query slot became free within %s", appConfigStore.getQueryGovernorQueueTimeout()));
+        }
+    }
+
+    private void reject(String reason) {
+        meterRegistry.counter("metrics.query.governor.rejected", "reason", reason).increment();
+    }
+
+    private static long weight(Operation operation) {
+        return switch (operation) {
+            case P95, QUANTILES, HISTOGRAM -> SKETCH_WEIGHT;
+            default -> 1;
+        };
+    }
+
+    private static long outputs(QueryRequest request) {
+        if (request.getOperation() == Operation.QUANTILES && request.getQuantiles() != null) {
+            return Math.max(1, request.getQuantiles().size());
+        }
+        if (request.getOperation() == Operation.HISTOGRAM && request.getBuckets() != null) {
+            return request.getBuckets().size() + 1;
+        }
+        return 1;
+    }
+}
@@ -1,39 +1,158 @@
 package com.metrics.services.query;
 
+import com.metrics.config.AppConfigStore;
+import com.metrics.exceptions.InvalidQueryException;
+import com.metrics.models.common.Operation;
+import com.metrics.models.common.RollupTier;
+import com.metrics.models.query.BucketSeries;
+import com.metrics.models.query.CachedSeries;
 import com.metrics.models.query.QueryRequest;
 import com.metrics.models.query.QueryResponse;
-import com.metrics.models.query.TimeSeriesPoint;
+import com.metrics.services.store.RollupCoverage;
 import com.metrics.utils.TimeUtils;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
-import java.util.Map;
 
 
 @Service
 @RequiredArgsConstructor
 public class QueryProcessingService {
 
+    private static final int MAX_CACHED_BUCKETS = 10_000;
+
     private final MetricQueryRepository repository;
-    private final QueryProcessingHelper queryProcessingHelper;
+    private final QueryResultCache queryResultCache;
+    private final SketchMergeEngine sketchMergeEngine;
+    private final RollupCoverage rollupCoverage;
+    private final AppConfigStore appConfigStore;
 
     public QueryResponse execute(QueryRequest request) {
+        if (request.getFrom() == null || request.getTo() == null) {
+            throw new InvalidQueryException("from and to are required");
+        }
+        if (request.getFrom().isAfter(request.getTo())) {
+            throw new InvalidQueryException("from must not be after to");
+        }
 
-        Duration step = TimeUtils.chooseStep(request.getFrom(), request.getTo());
-        Instant from = TimeUtils.alignDown(request.getFrom(), step);
-        Instant to = TimeUtils.alignDown(request.getTo(), step);
-
-        String sql = repository.build(request.getOperation());
-        Object[] args = repository.args(request, from, to, step.getSeconds(), request.getOperation());
+        Duration step = TimeUtils.chooseStep(request.getFrom(), request.getTo(), appConfigStore.isQueryHourlyStepEnabled());
+        long from = TimeUtils.alignDown(request.getFrom(), step).getEpochSecond();
+        long to = TimeUtils.alignDown(request.getTo(), step).getEpochSecond();
 
-        List<Map<String, Object>> rows = repository.query(sql, args);
+        if (isMultiSeries(request)) {
+            return executeGrouped(request, from, to, step);
+        }
 
-        Map<Instant, Double> bucketToValue = queryProcessingHelper.executeAggregation(request.getOperation(), rows);
-        List<TimeSeriesPoint> series = queryProcessingHelper.fillGapsAndBuildSeries(from, to, step, bucketToValue);
+        BucketSeries series = new BucketSeries(from, to, step.getSeconds());
+        String cacheKey = queryResultCache.isEnabled() ? queryResultCache.key(request, step) : null;
+        if (cacheKey != null) {
+            loadCached(cacheKey, request, series, to, step);
+        } else {
+            load(request, from, to, step, series);
+        }
 
         return new QueryResponse(series);
     }
 
+    /**
+     * Grouped, multi-quantile and histogram queries return several series; they are
+     * answered by one {@link SharedScan} and are not cached.
+     */
+    private QueryResponse executeGrouped(QueryRequest request, long from, long to, Duration step) {
+        SharedScan scan = new SharedScan(repository, sketchMergeEngine, request.getMetricName(), from, to,
+                step.getSeconds(), rollupCoverage.tierFor(step, from), appConfigStore.getQueryGroupByMaxGroups());
+        SharedScan.Result result = scan.add(request);
+        scan.run();
+        return result.response();
+    }
+
+    private static boolean isMultiSeries(QueryRequest request) {
+        return (request.getGroupBy() != null && !request.getGroupBy().isEmpty())
+                || request.getOperation() == Operation.QUANTILES
+                || request.getOperation() == Operation.HISTOGRAM;
+    }
+
+    private void load(QueryRequest request, long from, long to, Duration step, BucketSeries series) {
+        List<Long> seriesIds = repository.resolveSeries(request.getMetricName(), request.getLabels());
+
+        if (seriesIds.isEmpty()) {
+            return;
+        }
+
+        // Reads from the coarsest rollup tier that tiles the step, so the scanned row count
+        // depends on the step rather than on raw sample density
+        String sql = repository.build(request.getOperation(), rollupCoverage.tierFor(step, from), step.getSeconds());
+        Object[] args = repository.args(seriesIds, Instant.ofEpochSecond(from), Instant.ofEpochSecond(to + step.getSeconds()));
+
+        if (request.getOperation() == Operation.P95) {
+            SketchMergeEngine.Merge merge = sketchMergeEngine.start(0.95, series);
+            repository.streamSketches(sql, args, merge::accept);
+            merge.finish();
+            return;
+        }
+
+        repository.queryInto(sql, args, series);
+    }
+
+    /**
+     * Serves the leading buckets from {@link QueryResultCache} and only queries the tail
+     * that is not cached yet. Only buckets that ended {@code immutableAfter} ago are
+     * cached.
+     */
+    private void loadCached(String key, QueryRequest request, BucketSeries series, long toEpoch, Duration step) {
+        long stepSeconds = step.getSeconds();
+        long fromEpoch = series.getFrom();
+
+        CachedSeries cached = queryResultCache.get(key);
+
+        long queryFrom = fromEpoch;
+        if (cached != null && cached.getFrom() <= fromEpoch && cached.getTo() >= fromEpoch) {
+            long cachedTo = Math.min(cached.getTo(), toEpoch);
+            copy(cached.getValues(), cached.getFrom(), series.getValues(), fromEpoch, fromEpoch, cachedTo, stepSeconds);
+            queryFrom = cachedTo + stepSeconds;
+        }
+        queryResultCache.recordLookup((queryFrom - fromEpoch) / stepSeconds, series.size());
+
+        if (queryFrom > toEpoch) {
+            return;
+        }
+        load(request, queryFrom, toEpoch, step, series);
+
+        long horizon = TimeUtils.alignDown(Instant.now().minus(queryResultCache.immutableAfter()), step).getEpochSecond();
+        long cacheTo = Math.min(toEpoch, horizon - stepSeconds);
+        if (cacheTo >= queryFrom) {
+            queryResultCache.put(key, extend(cached, series, queryFrom, cacheTo));
+        }
+    }
+
+    private static CachedSeries extend(CachedSeries cached, BucketSeries series, long loadedFrom, long loadedTo) {
+        long step = series.getStep();
+        boolean contiguous = cached != null && cached.getTo() + step >= loadedFrom && cached.getFrom() <= loadedFrom;
+        long from = contiguous ? cached.getFrom() : loadedFrom;
+        long to = contiguous ? Math.max(cached.getTo(), loadedTo) : loadedTo;
+        // Keep entries bounded for dashboards that stay open for days
+        from = Math.max(from, to - (MAX_CACHED_BUCKETS - 1) * step);
+
+        double[] values = new double[(int) ((to - from) / step) + 1];
+        if (contiguous) {
+            copy(cached.getValues(), cached.getFrom(), values, from, from, cached.getTo(), step);
+        }
+        copy(series.getValues(), series.getFrom(), values, from, loadedFrom, loadedTo, step);
+        return new CachedSeries(from, to, step, values);
+    }
+
+    /**
+     * Copies buckets {@code [rangeFrom, rangeTo]} between two step-indexed arrays that
+     * start at {@code srcFrom} and {@code dstFrom}, clipped to both arrays.
+     */
+    private static void copy(double[] src, long srcFrom, double[] dst, long dstFrom, long rangeFrom, long rangeTo, long step) {
+        long start = Math.max(rangeFrom, Math.max(srcFrom, dstFrom));
+        long end = Math.min(rangeTo, Math.min(srcFrom + (src.length - 1) * step, dstFrom + (dst.length - 1) * step));
+        if (end < start) return;
+
+        System.arraycopy(src, (int) ((start - srcFrom) / step), dst, (int) ((start - dstFrom) / step), (int) ((end - start) / step) + 1);
+    }
+
 }
@@ -0,0 +1,172 @@
+package com.metrics.services.query;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.metrics.config.AppConfigStore;
+import com.metrics.models.query.CachedSeries;
+import com.metrics.models.query.QueryRequest;
+import com.metrics.utils.BoundedCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches per-bucket query results that can no longer change, keyed by metric, operation,
+ * label filter and step. Buckets older than {@code query.cache.immutableAfter} are final
+ * once flushed, so a sliding dashboard query only has to read its newest buckets from the
+ * database.
+ * <p>
+ * Late or backfilled samples can still land in such buckets, so the store path calls
+ * {@link #invalidate} for every metric it writes below the horizon. Each metric has a
+ * generation that is part of the cache key, and invalidation bumps it, so stale entries
+ * are never read again and age out of the cache.
+ * <p>
+ * Entries live in a bounded local cache. With {@code query.cache.redis.enabled},
+ * entries and generations are also kept in Redis, so instances share them and see each
+ * other's invalidations. Run with Redis enabled when there is more than one instance.
+ */
+@Component
+@Slf4j
+public class QueryResultCache {
+
+    private static final String REDIS_KEY_PREFIX = "query:cache:";
+    private static final String REDIS_GENERATION_PREFIX = "query:cache:gen:";
+    private static final int MAX_GENERATIONS = 100_000;
+
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final AppConfigStore appConfigStore;
+    private final BoundedCache<String, CachedSeries> local;
+    private final Map<String, Long> generations = new ConcurrentHashMap<>();
+
+    private final Counter hits;
+    private final Counter partialHits;
+    private final Counter misses;
+    private final Counter redisFailures;
+
+    public QueryResultCache(
+            StringRedisTemplate redisTemplate,
+            ObjectMapper objectMapper,
+            AppConfigStore appConfigStore,
+            MeterRegistry meterRegistry
+    ) {
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.appConfigStore = appConfigStore;
+        this.local = new BoundedCache<>(appConfigStore.getQueryCacheMaxEntries());
+
+        this.hits = meterRegistry.counter("metrics.query.cache", "result", "hit");
+        this.partialHits = meterRegistry.counter("metrics.query.cache", "result", "partial");
+        this.misses = meterRegistry.counter("metrics.query.cache", "result", "miss");
+        this.redisFailures = meterRegistry.counter("metrics.query.cache.redis.failures");
+    }
+
+    public boolean isEnabled() {
+        return appConfigStore.isQueryCacheEnabled();
+    }
+
+    public Duration immutableAfter() {
+        return appConfigStore.getQueryCacheImmutableAfter();
+    }
+
+    /**
+     * Returns the cache key of a query shape, or {@code null} when the metric's current
+     * generation is unknown and the cache must be bypassed.
+     */
+    public String key(QueryRequest request, Duration step) {
+        Long generation = generation(request.getMetricName());
+        if (generation == null) return null;
+
+        Map<String, String> labels = request.getLabels() == null ? Map.of() : new TreeMap<>(request.getLabels());
+        return request.getMetricName() + '|' + generation + '|'
+                + request.getOperation() + '|' + labels + '|' + step.getSeconds();
+    }
+
+    /**
+     * Drops every cached result of {@code metricName}.
+     */
+    public void invalidate(String metricName) {
+        if (generations.size() >= MAX_GENERATIONS) {
+            // Forgetting generations could make old keys current again; start fresh instead
+            local.clear();
+            generations.clear();
+        }
+        generations.merge(metricName, 1L, Long::sum);
+        if (!appConfigStore.isQueryCacheRedisEnabled()) return;
+
+        try {
+            redisTemplate.opsForValue().increment(REDIS_GENERATION_PREFIX + metricName);
+        } catch (Exception e) {
+            redisFailures.increment();
+            log.warn("Query cache invalidation in Redis failed for {}: {}", metricName, e.getMessage());
+        }
+    }
+
+    private Long generation(String metricName) {
+        if (!appConfigStore.isQueryCacheRedisEnabled()) {
+            return generations.getOrDefault(metricName, 0L);
+        }
+
+        try {
+            String value = redisTemplate.opsForValue().get(REDIS_GENERATION_PREFIX + metricName);
+            return value == null ? 0L : Long.parseLong(value);
+        } catch (Exception e) {
+            // Another instance may have invalidated meanwhile, so the local view is not enough
+            redisFailures.increment();
+            log.warn("Query cache generation read from Redis failed for {}: {}", metricName, e.getMessage());
+            return null;
+        }
+    }
+
+    public CachedSeries get(String key) {
+        CachedSeries series = local.get(key);
+        if (series != null || !appConfigStore.isQueryCacheRedisEnabled()) {
+            return series;
+        }
+
+        try {
+            String json = redisTemplate.opsForValue().get(REDIS_KEY_PREFIX + key);
+            if (json == null) return null;
+
+            series = objectMapper.readValue(json, CachedSeries.class);
+            local.put(key, series);
+            return series;
+        } catch (Exception e) {
+            redisFailures.increment();
+            log.warn("Query cache read from Redis failed for {}: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    public void put(String key, CachedSeries series) {
+        local.put(key, series);
+        if (!appConfigStore.isQueryCacheRedisEnabled()) return;
+
+        try {
+            redisTemplate.opsForValue().set(
+                    REDIS_KEY_PREFIX + key,
+                    objectMapper.writeValueAsString(series),
+                    appConfigStore.getQueryCacheRedisTtl()
+            );
+        } catch (Exception e) {
+            redisFailures.increment();
+            log.warn("Query cache write to Redis failed for {}: {}", key, e.getMessage());
+        }
+    }
+
+    public void recordLookup(long cachedBuckets, long totalBuckets) {
+        if (cachedBuckets == 0) {
+            misses.increment();
+        } else if (cachedBuckets >= totalBuckets) {
+            hits.increment();
+        } else {
+            partialHits.increment();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.metrics.services.query;
+
+import com.metrics.models.common.Operation;
+import com.metrics.models.common.RollupTier;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.metrics.constants.Constants.SqlConstants.AVG_SQL;
+import static com.metrics.constants.Constants.SqlConstants.BATCH_SCAN_SKETCH_SQL;
+import static com.metrics.constants.Constants.SqlConstants.BATCH_SCAN_SQL;
+import static com.metrics.constants.Constants.SqlConstants.LABEL_FILTER_SQL;
+import static com.metrics.constants.Constants.SqlConstants.P95_SQL;
+import static com.metrics.constants.Constants.SqlConstants.RATE_SQL;
+import static com.metrics.constants.Constants.SqlConstants.ROLLUP_AVG_SQL;
+import static com.metrics.constants.Constants.SqlConstants.ROLLUP_BATCH_SCAN_SKETCH_SQL;
+import static com.metrics.constants.Constants.SqlConstants.ROLLUP_BATCH_SCAN_SQL;
+import static com.metrics.constants.Constants.SqlConstants.ROLLUP_P95_SQL;
+import static com.metrics.constants.Constants.SqlConstants.ROLLUP_RATE_SQL;
+import static com.metrics.constants.Constants.SqlConstants.ROLLUP_SUM_SQL;
+import static com.metrics.constants.Constants.SqlConstants.SERIES_LABELS_SQL;
+import static com.metrics.constants.Constants.SqlConstants.SERIES_SQL;
+import static com.metrics.constants.Constants.SqlConstants.SUM_SQL;
+
+/**
+ * Renders one statement per query shape: label filter present or not, operation,
+ * rollup tier and step. Optional predicates are left out instead of being disabled by a
+ * {@code NULL} parameter, and the step is inlined into {@code time_bucket}, so each
+ * shape gets a plan of its own. Rendered statements are cached; since a shape always
+ * renders to the same text, PgJDBC keeps one server-side prepared statement per shape
+ * and connection (see {@code MetricQueryRepository}'s prepare threshold).
+ */
+@Component
+public class QuerySqlBuilder {
+
+    private static final long DAY_SECONDS = 86_400;
+    private static final String SERIES = String.format(SERIES_SQL, "");
+    private static final String SERIES_FILTERED = String.format(SERIES_SQL, LABEL_FILTER_SQL);
+    private static final String SERIES_LABELS = String.format(SERIES_LABELS_SQL, "");
+    private static final String SERIES_LABELS_FILTERED = String.format(SERIES_LABELS_SQL, LABEL_FILTER_SQL);
+
+    private final Map<String, String> statements = new ConcurrentHashMap<>();
+
+    /**
+     * Series IDs of a metric; binds {@code (metricName[, labelsJson])}.
+     */
+    public String series(boolean labelFiltered) {
+        return labelFiltered ? SERIES_FILTERED : SERIES;
+    }
+
+    /**
+     * Series IDs and label sets of a metric; binds {@code (metricName[, labelsJson])}.
+     */
+    public String seriesLabels(boolean labelFiltered) {
+        return labelFiltered ? SERIES_LABELS_FILTERED : SERIES_LABELS;
+    }
+
+    /**
+     * {@code (bucket_epoch, value)} rows, or {@code (bucket_epoch, sketch)} rows for P95,
+     * from raw samples or {@code tier}; binds {@code (seriesIds, from, to)}.
+     */
+    public String samples(Operation operation, RollupTier tier, long stepSeconds) {
+        String template = switch (operation) {
+            case SUM  -> tier == null ? SUM_SQL : ROLLUP_SUM_SQL;
+            case AVG  -> tier == null ? AVG_SQL : ROLLUP_AVG_SQL;
+            case RATE -> tier == null ? RATE_SQL : ROLLUP_RATE_SQL;
+            case P95  -> tier == null ? P95_SQL : ROLLUP_P95_SQL;
+            default -> throw new IllegalArgumentException("Unsupported operation: " + operation);
+        };
+        return render(operation.getValue(), template, tier, stepSeconds);
+    }
+
+    /**
+     * Per-series {@code (bucket_epoch, series_id, value_sum, value_count[, sketch])} rows
+     * for {@link SharedScan}; binds {@code (seriesIds, from, to)}.
+     */
+    public String scan(boolean withSketch, RollupTier tier, long stepSeconds) {
+        String template = tier == null
+                ? (withSketch ? BATCH_SCAN_SKETCH_SQL : BATCH_SCAN_SQL)
+                : (withSketch ? ROLLUP_BATCH_SCAN_SKETCH_SQL : ROLLUP_BATCH_SCAN_SQL);
+        return render(withSketch ? "scan-sketch" : "scan", template, tier, stepSeconds);
+    }
+
+    private String render(String shape, String template, RollupTier tier, long stepSeconds) {
+        String key = shape + '|' + (tier == null ? "raw" : tier.getValue()) + '|' + stepSeconds;
+        return statements.computeIfAbsent(key, k -> String.format(
+                template,
+                timeBucket(tier == null ? "ts" : "bucket", stepSeconds),
+                tier == null ? null : tier.getTable(),
+                stepSeconds
+        ));
+    }
+
+    // TimescaleDB buckets from a Monday midnight by default, which matches epoch-aligned
+    // buckets only for steps that divide a day
+    private static String timeBucket(String column, long stepSeconds) {
+        String origin = DAY_SECONDS % stepSeconds == 0 ? "" : ", origin => TIMESTAMPTZ 'epoch'";
+        return String.format("time_bucket(INTERVAL '%d seconds', %s%s)", stepSeconds, column, origin);
+    }
+}
@@ -0,0 +1,340 @@
+package com.metrics.services.query;
+
+import com.metrics.exceptions.InvalidQueryException;
+import com.metrics.exceptions.QueryGroupLimitException;
+import com.metrics.models.common.Operation;
+import com.metrics.models.common.RollupTier;
+import com.metrics.models.query.BucketSeries;
+import com.metrics.models.query.LabeledSeries;
+import com.metrics.models.query.QueryRequest;
+import com.metrics.models.query.QueryResponse;
+import com.metrics.utils.TDigestSketch;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * One scan of a metric over a step-aligned range that answers any number of queries.
+ * <p>
+ * Every query, and every group of a {@code groupBy} query, gets an {@link Accumulator}.
+ * The scan streams per-series partial sums and counts (and sketches when a quantile is
+ * requested); a hash map from series ID to the accumulators that selected it routes each
+ * row. Group membership is decided from the series dictionary before the scan, so the
+ * {@code maxGroups} limit is enforced before any sample is read.
+ * <p>
+ * Sketch operations merge each bucket's sketches once and read all their outputs (a
+ * list of quantiles, or the counts of histogram buckets) from that merged digest.
+ */
+final class SharedScan {
+
+    private static final Comparator<List<String>> GROUP_ORDER = (a, b) -> {
+        Comparator<String> values = Comparator.nullsFirst(Comparator.naturalOrder());
+        for (int i = 0; i < a.size(); i++) {
+            int c = values.compare(a.get(i), b.get(i));
+            if (c != 0) return c;
+        }
+        return 0;
+    };
+
+    private final MetricQueryRepository repository;
+    private final SketchMergeEngine sketchMergeEngine;
+    private final String metricName;
+    private final long from;
+    private final long to;
+    private final long step;
+    private final RollupTier tier;
+    private final int maxGroups;
+
+    private final List<Accumulator> accumulators = new ArrayList<>();
+    private final Map<Long, int[]> targets = new HashMap<>();
+    private final Map<Map<String, String>, List<Long>> resolved = new HashMap<>();
+    private boolean withSketch;
+
+    SharedScan(
+            MetricQueryRepository repository,
+            SketchMergeEngine sketchMergeEngine,
+            String metricName,
+            long from,
+            long to,
+            long step,
+            RollupTier tier,
+            int maxGroups
+    ) {
+        this.repository = repository;
+        this.sketchMergeEngine = sketchMergeEngine;
+        this.metricName = metricName;
+        this.from = from;
+        this.to = to;
+        this.step = step;
+        this.tier = tier;
+        this.maxGroups = maxGroups;
+    }
+
+    /**
+     * Registers a query on this scan's metric and range. Its response is available from
+     * the returned handle once {@link #run()} has completed.
+     *
+     * @throws InvalidQueryException if its quantiles or histogram buckets are invalid
+     * @throws QueryGroupLimitException if its {@code groupBy} yields too many groups
+     */
+    Result add(QueryRequest query) {
+        validate(query);
+        Map<String, String> labels = Objects.requireNonNullElse(query.getLabels(), Map.of());
+        List<String> groupBy = query.getGroupBy();
+
+        if (groupBy == null || groupBy.isEmpty()) {
+            int index = accumulator(query);
+            for (Long seriesId : resolved.computeIfAbsent(labels, l -> repository.resolveSeries(metricName, l))) {
+                target(seriesId, index);
+            }
+            return new Result(query, Map.of(List.of(), index));
+        }
+
+        Map<Long, List<String>> seriesGroups = new HashMap<>();
+        Map<List<String>, Integer> groups = new HashMap<>();
+        repository.resolveSeriesLabels(metricName, labels).forEach((seriesId, seriesLabels) -> {
+            List<String> group = groupBy.stream().map(seriesLabels::get).toList();
+            seriesGroups.put(seriesId, group);
+            groups.putIfAbsent(group, -1);
+        });
+        if (groups.size() > maxGroups) {
+            throw new QueryGroupLimitException(metricName, groups.size(), maxGroups);
+        }
+
+        groups.replaceAll((group, index) -> accumulator(query));
+        seriesGroups.forEach((seriesId, group) -> target(seriesId, groups.get(group)));
+        return new Result(query, groups);
+    }
+
+    /**
+     * Runs the scan, unless no query selected any series, and finishes every accumulator.
+     *
+     * @return whether the database was scanned
+     */
+    boolean run() {
+        boolean scanned = !targets.isEmpty();
+        if (scanned) {
+            for (Accumulator accumulator : accumulators) {
+                if (isSketch(accumulator.operation)) {
+                    accumulator.merge = sketchMergeEngine.start(accumulator::read);
+                }
+            }
+
+            String sql = repository.buildScan(withSketch, tier, step);
+            Object[] args = repository.args(new ArrayList<>(targets.keySet()), Instant.ofEpochSecond(from), Instant.ofEpochSecond(to + step));
+
+            repository.scan(sql, args, withSketch, (bucket, seriesId, valueSum, valueCount, sketch) -> {
+                int[] selectedBy = targets.get(seriesId);
+                if (selectedBy == null) return;
+                for (int index : selectedBy) {
+                    accumulators.get(index).add(bucket, valueSum, valueCount, sketch);
+                }
+            });
+        }
+
+        accumulators.forEach(Accumulator::finish);
+        return scanned;
+    }
+
+    private int accumulator(QueryRequest query) {
+        double[] points = switch (query.getOperation()) {
+            case QUANTILES -> toArray(query.getQuantiles());
+            case HISTOGRAM -> toArray(query.getBuckets());
+            default -> null;
+        };
+        accumulators.add(new Accumulator(query.getOperation(), points, from, to, step));
+        withSketch |= isSketch(query.getOperation());
+        return accumulators.size() - 1;
+    }
+
+    private static boolean isSketch(Operation operation) {
+        return operation == Operation.P95 || operation == Operation.QUANTILES || operation == Operation.HISTOGRAM;
+    }
+
+    private static void validate(QueryRequest query) {
+        if (query.getOperation() == Operation.QUANTILES) {
+            List<Double> quantiles = query.getQuantiles();
+            if (quantiles == null || quantiles.isEmpty()) {
+                throw new InvalidQueryException("quantiles are required for QUANTILES");
+            }
+            for (Double q : quantiles) {
+                if (q == null || q < 0 || q > 1) {
+                    throw new InvalidQueryException("quantiles must be between 0 and 1");
+                }
+            }
+        } else if (query.getOperation() == Operation.HISTOGRAM) {
+            List<Double> buckets = query.getBuckets();
+            if (buckets == null || buckets.isEmpty()) {
+                throw new InvalidQueryException("buckets are required for HISTOGRAM");
+            }
+            for (int i = 0; i < buckets.size(); i++) {
+                if (buckets.get(i) == null || (i > 0 && buckets.get(i) <= buckets.get(i - 1))) {
+                    throw new InvalidQueryException("buckets must be strictly increasing");
+                }
+            }
+        }
+    }
+
+    private static double[] toArray(List<Double> values) {
+        return values.stream().mapToDouble(Double::doubleValue).toArray();
+    }
+
+    private void target(long seriesId, int index) {
+        targets.merge(seriesId, new int[] {index}, (existing, added) -> {
+            int[] merged = Arrays.copyOf(existing, existing.length + 1);
+            merged[existing.length] = index;
+            return merged;
+        });
+    }
+
+    /**
+     * The accumulators of one query, keyed by group-by label values; an ungrouped query
+     * has a single accumulator under the empty key.
+     */
+    final class Result {
+
+        private final QueryRequest query;
+        private final Map<List<String>, Integer> groups;
+
+        private Result(QueryRequest query, Map<List<String>, Integer> groups) {
+            this.query = query;
+            this.groups = groups;
+        }
+
+        /**
+         * A single series for a plain query; otherwise one labeled series per group and
+         * output, where quantile and histogram outputs add a {@code quantile} or
+         * {@code le} label.
+         */
+        QueryResponse response() {
+            List<String> groupBy = Objects.requireNonNullElse(query.getGroupBy(), List.of());
+            boolean multiOutput = query.getOperation() == Operation.QUANTILES || query.getOperation() == Operation.HISTOGRAM;
+            if (groupBy.isEmpty() && !multiOutput) {
+                return new QueryResponse(accumulators.get(groups.get(List.of())).outputs[0]);
+            }
+
+            List<LabeledSeries> series = new ArrayList<>();
+            groups.entrySet().stream()
+                    .sorted(Map.Entry.comparingByKey(GROUP_ORDER))
+                    .forEach(group -> {
+                        Map<String, String> labels = new LinkedHashMap<>();
+                        for (int i = 0; i < groupBy.size(); i++) {
+                            if (group.getKey().get(i) != null) {
+                                labels.put(groupBy.get(i), group.getKey().get(i));
+                            }
+                        }
+
+                        Accumulator accumulator = accumulators.get(group.getValue());
+                        if (!multiOutput) {
+                            series.add(new LabeledSeries(labels, accumulator.outputs[0]));
+                            return;
+                        }
+                        for (int i = 0; i < accumulator.outputs.length; i++) {
+                            Map<String, String> outputLabels = new LinkedHashMap<>(labels);
+                            if (query.getOperation() == Operation.QUANTILES) {
+                                outputLabels.put("quantile", String.valueOf(accumulator.points[i]));
+                            } else {
+                                outputLabels.put("le", i < accumulator.points.length ? String.valueOf(accumulator.points[i]) : "+Inf");
+                            }
+                            series.add(new LabeledSeries(outputLabels, accumulator.outputs[i]));
+                        }
+                    });
+            return new QueryResponse(series);
+        }
+    }
+
+    /**
+     * Builds one query's (or group's) output series from the per-series rows routed to it.
+     * Numeric operations have a single output; QUANTILES has one per quantile and
+     * HISTOGRAM one per bucket bound plus {@code +Inf}, holding estimated sample counts.
+     */
+    private static final class Accumulator {
+
+        final Operation operation;
+        final double[] points;
+        final BucketSeries[] outputs;
+        final long[] counts;
+        SketchMergeEngine.Merge merge;
+
+        Accumulator(Operation operation, double[] points, long from, long to, long step) {
+            this.operation = operation;
+            this.points = points;
+
+            int size = switch (operation) {
+                case QUANTILES -> points.length;
+                case HISTOGRAM -> points.length + 1;
+                default -> 1;
+            };
+            this.outputs = new BucketSeries[size];
+            for (int i = 0; i < size; i++) {
+                outputs[i] = new BucketSeries(from, to, step);
+            }
+            this.counts = operation == Operation.AVG ? new long[outputs[0].size()] : null;
+        }
+
+        void add(long bucket, double valueSum, long valueCount, byte[] sketch) {
+            if (merge != null) {
+                merge.accept(bucket, sketch);
+                return;
+            }
+
+            BucketSeries series = outputs[0];
+            int index = series.indexOf(bucket);
+            if (index < 0) return;
+            series.getValues()[index] += valueSum;
+            if (counts != null) {
+                counts[index] += valueCount;
+            }
+        }
+
+        void read(long bucket, TDigestSketch merged) {
+            switch (operation) {
+                case QUANTILES -> {
+                    for (int i = 0; i < points.length; i++) {
+                        outputs[i].set(bucket, SketchMergeEngine.finite(merged.getQuantile(points[i])));
+                    }
+                }
+                case HISTOGRAM -> {
+                    long total = merged.getCount();
+                    if (total == 0) return;
+
+                    double below = 0;
+                    for (int i = 0; i < points.length; i++) {
+                        double atOrBelow = total * merged.getCdf(points[i]);
+                        outputs[i].set(bucket, atOrBelow - below);
+                        below = atOrBelow;
+                    }
+                    outputs[points.length].set(bucket, total - below);
+                }
+                default -> outputs[0].set(bucket, SketchMergeEngine.finite(merged.getQuantile(0.95)));
+            }
+        }
+
+        void finish() {
+            double[] values = outputs[0].getValues();
+            switch (operation) {
+                case AVG -> {
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = counts[i] > 0 ? values[i] / counts[i] : 0.0;
+                    }
+                }
+                case RATE -> {
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] /= outputs[0].getStep();
+                    }
+                }
+                case P95, QUANTILES, HISTOGRAM -> {
+                    if (merge != null) merge.finish();
+                }
+                default -> { }
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.metrics.services.query;
+
+import com.metrics.config.AppConfigStore;
+import com.metrics.models.query.BucketSeries;
+import com.metrics.utils.TDigestSketch;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Merges serialized t-digests per bucket in parallel, straight from a row stream.
+ * <p>
+ * Rows must arrive ordered by bucket. Each bucket's sketches are cut into chunks of
+ * {@value #CHUNK_SIZE}; every chunk is deserialized and tree-merged on the fork-join
+ * pool while further rows are read, and a bucket's chunk results are tree-merged once
+ * the bucket ends. Only a bounded number of chunks may be pending at a time, so the
+ * reader waits for the pool instead of buffering a whole month of raw sketches.
+ */
+@Component
+public class SketchMergeEngine {
+
+    private static final int CHUNK_SIZE = 64;
+    private static final int LEAF_SIZE = 8;
+
+    private final ForkJoinPool pool;
+    private final int maxPendingChunks;
+
+    public SketchMergeEngine(AppConfigStore appConfigStore) {
+        int parallelism = appConfigStore.getQueryMergeParallelism() > 0
+                ? appConfigStore.getQueryMergeParallelism()
+                : Runtime.getRuntime().availableProcessors();
+        this.pool = new ForkJoinPool(parallelism);
+        this.maxPendingChunks = parallelism * 4;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Starts a merge that writes {@code quantile} of every bucket it is fed into
+     * {@code target}.
+     */
+    public Merge start(double quantile, BucketSeries target) {
+        return start((bucket, merged) -> target.set(bucket, finite(merged.getQuantile(quantile))));
+    }
+
+    /**
+     * Starts a merge that hands every bucket's merged digest to {@code reader}, so any
+     * number of quantiles or distribution buckets come from a single merge. The reader
+     * is called from pool threads, once per bucket; {@link Merge#finish} returns after
+     * the last call.
+     */
+    public Merge start(DigestReader reader) {
+        return new Merge(reader);
+    }
+
+    /**
+     * Maps NaN and infinite estimates (e.g. of an empty digest) to 0.
+     */
+    public static double finite(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? 0.0 : value;
+    }
+
+    @FunctionalInterface
+    public interface DigestReader {
+        void read(long bucketEpoch, TDigestSketch merged);
+    }
+
+    /**
+     * One query's merge. {@link #accept} is called by a single reader thread, then
+     * {@link #finish} once the rows are exhausted.
+     */
+    public final class Merge {
+
+        private final DigestReader reader;
+        private final Semaphore pendingChunks = new Semaphore(maxPendingChunks);
+        private final List<CompletableFuture<Void>> buckets = new ArrayList<>();
+
+        private boolean open;
+        private long bucket;
+        private List<byte[]> chunk = new ArrayList<>(CHUNK_SIZE);
+        private List<CompletableFuture<TDigestSketch>> partials = new ArrayList<>();
+
+        private Merge(DigestReader reader) {
+            this.reader = reader;
+        }
+
+        public void accept(long bucketEpoch, byte[] sketch) {
+            if (!open || bucketEpoch != bucket) {
+                closeBucket();
+                bucket = bucketEpoch;
+                open = true;
+            }
+            if (sketch == null || sketch.length == 0) return;
+
+            chunk.add(sketch);
+            if (chunk.size() == CHUNK_SIZE) {
+                submitChunk();
+            }
+        }
+
+        /**
+         * Waits until every bucket has been handed to the reader.
+         */
+        public void finish() {
+            closeBucket();
+            CompletableFuture.allOf(buckets.toArray(new CompletableFuture[0])).join();
+        }
+
+        private void submitChunk() {
+            pendingChunks.acquireUninterruptibly();
+            List<Object> sketches = new ArrayList<>(chunk);
+            chunk = new ArrayList<>(CHUNK_SIZE);
+
+            partials.add(CompletableFuture
+                    .supplyAsync(() -> new TreeMerge(sketches, 0, sketches.size()).invoke(), pool)
+                    .whenComplete((merged, e) -> pendingChunks.release()));
+        }
+
+        private void closeBucket() {
+            if (!open) return;
+            if (!chunk.isEmpty()) {
+                submitChunk();
+            }
+            if (partials.isEmpty()) {
+                return;
+            }
+
+            long ts = bucket;
+            List<CompletableFuture<TDigestSketch>> chunks = partials;
+            partials = new ArrayList<>();
+
+            buckets.add(CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0]))
+                    .thenAcceptAsync(done -> {
+                        List<Object> digests = new ArrayList<>(chunks.size());
+                        chunks.forEach(c -> digests.add(c.join()));
+                        // Distinct buckets write distinct slots; finish() joins before they are read
+                        reader.read(ts, new TreeMerge(digests, 0, digests.size()).invoke());
+                    }, pool));
+        }
+    }
+
+    /**
+     * Merges serialized sketches or already merged digests, splitting in halves until
+     * {@value #LEAF_SIZE} items are left.
+     */
+    private static final class TreeMerge extends RecursiveTask<TDigestSketch> {
+
+        private final List<Object> items;
+        private final int from;
+        private final int to;
+
+        private TreeMerge(List<Object> items, int from, int to) {
+            this.items = items;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected TDigestSketch compute() {
+            if (to - from <= LEAF_SIZE) {
+                TDigestSketch merged = TDigestSketch.create();
+                for (int i = from; i < to; i++) {
+                    Object item = items.get(i);
+                    merged.merge(item instanceof byte[] bytes ? TDigestSketch.deserialize(bytes) : (TDigestSketch) item);
+                }
+                return merged;
+            }
+
+            int mid = (from + to) >>> 1;
+            TreeMerge left = new TreeMerge(items, from, mid);
+            left.fork();
+            TDigestSketch right = new TreeMerge(items, mid, to).compute();
+            TDigestSketch merged = left.join();
+            merged.merge(right);
+            return merged;
+        }
+    }
+}
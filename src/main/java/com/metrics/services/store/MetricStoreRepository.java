@@ -1,28 +1,197 @@
 package com.metrics.services.store;
 
+import com.metrics.config.AppConfigStore;
 import com.metrics.models.check.ProcessedMetric;
-import lombok.RequiredArgsConstructor;
+import com.metrics.models.common.StoreWriteMode;
+import com.metrics.services.check.SeriesRegistry;
+import com.metrics.services.query.QueryResultCache;
+import com.metrics.utils.BoundedCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @Repository
-@RequiredArgsConstructor
 @Slf4j
 public class MetricStoreRepository {
 
-    private final JdbcTemplate jdbcTemplate;
+    private static final String SERIES_INSERT_SQL = """
+        INSERT INTO series (
+            series_id, metric_name, metric_type, labels
+        ) VALUES (?, ?, ?, ?)
+        ON CONFLICT (series_id) DO NOTHING
+        """;
+
     private static final String INSERT_SQL = """
         INSERT INTO metric_samples (
-            ts, metric_name, metric_type, value, sketch, labels
-        ) VALUES (?, ?, ?, ?, ?, ?)
+            ts, series_id, value, sketch
+        ) VALUES (?, ?, ?, ?)
+        """;
+
+    // Includes the time column, as unique indexes on a hypertable must
+    private static final String UPSERT_INDEX_SQL = """
+        CREATE UNIQUE INDEX IF NOT EXISTS uq_series_id_ts
+        ON metric_samples (series_id, ts)
+        """;
+
+    // No row lock: a series is written by one lane only, see RollupWriter
+    private static final String SELECT_STORED_SQL = """
+        SELECT series_id, extract(epoch from ts)::bigint AS ts_epoch, value
+        FROM metric_samples
+        WHERE (series_id, ts) IN (
+            SELECT k.series_id, to_timestamp(k.ts_epoch)
+            FROM unnest(?::bigint[], ?::bigint[]) AS k(series_id, ts_epoch)
+        )
+        """;
+
+    private static final String UPSERT_SQL = """
+        INSERT INTO metric_samples (
+            ts, series_id, value, sketch
+        ) VALUES (?, ?, ?, ?)
+        ON CONFLICT (series_id, ts) DO UPDATE SET
+            value = EXCLUDED.value,
+            sketch = EXCLUDED.sketch
+        """;
+
+    private static final String COPY_SQL = """
+        COPY metric_samples (
+            ts, series_id, value, sketch
+        ) FROM STDIN WITH (FORMAT binary)
         """;
 
+    // Binary COPY framing, see "COPY ... Binary Format" in the PostgreSQL docs
+    private static final byte[] COPY_SIGNATURE = "PGCOPY\n\377\r\n\0".getBytes(StandardCharsets.ISO_8859_1);
+    private static final short COPY_FIELD_COUNT = 4;
+    private static final short COPY_TRAILER = -1;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final long PG_EPOCH_SECONDS = 946_684_800L; // 2000-01-01T00:00:00Z
+
+    private final JdbcTemplate jdbcTemplate;
+    private final SeriesRegistry seriesRegistry;
+    private final RollupWriter rollupWriter;
+    private final QueryResultCache queryResultCache;
+    private final TransactionTemplate transaction;
+    private final TransactionTemplate savepoint;
+    private final StoreWriteMode writeMode;
+    private final BoundedCache<Long, Boolean> knownSeries;
+    private final Counter copyFallbacks;
+
+    public MetricStoreRepository(
+            JdbcTemplate jdbcTemplate,
+            SeriesRegistry seriesRegistry,
+            RollupWriter rollupWriter,
+            QueryResultCache queryResultCache,
+            PlatformTransactionManager transactionManager,
+            AppConfigStore appConfigStore,
+            MeterRegistry meterRegistry
+    ) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.seriesRegistry = seriesRegistry;
+        this.rollupWriter = rollupWriter;
+        this.queryResultCache = queryResultCache;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.savepoint = new TransactionTemplate(transactionManager);
+        this.savepoint.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+        this.writeMode = appConfigStore.getStoreWriteMode();
+        this.knownSeries = new BoundedCache<>(appConfigStore.getStoreSeriesCacheSize());
+        this.copyFallbacks = meterRegistry.counter("metrics.store.copy.fallbacks");
+    }
+
+    /**
+     * UPSERT needs a unique {@code (series_id, ts)} index, which INSERT and COPY must not
+     * have since they write one row per sample. It is created here rather than in
+     * {@code init.sql}, so a fresh schema works in every mode. Startup fails if duplicate
+     * rows from an earlier mode are still present.
+     */
+    @PostConstruct
+    public void ensureSchema() {
+        if (writeMode != StoreWriteMode.UPSERT) return;
+
+        log.info("Ensuring unique index uq_series_id_ts for store.writeMode UPSERT");
+        jdbcTemplate.execute(UPSERT_INDEX_SQL);
+    }
+
     public void batchInsert(List<ProcessedMetric> batch) {
+        registerSeries(batch);
+
+        if (!rollupWriter.isEnabled()) {
+            writeSamples(batch);
+        } else {
+            // Samples and rollups commit together, so a retried batch is never half counted
+            transaction.executeWithoutResult(status -> {
+                if (writeMode == StoreWriteMode.UPSERT) {
+                    // A row per window: tiers take what each upsert changed, not every sample
+                    rollupWriter.apply(upsert(batch));
+                } else {
+                    writeSamples(batch);
+                    rollupWriter.merge(batch);
+                }
+            });
+        }
+        invalidateCachedResults(batch);
+    }
+
+    /**
+     * Late or backfilled samples change buckets the query cache already treats as final.
+     */
+    private void invalidateCachedResults(List<ProcessedMetric> batch) {
+        if (!queryResultCache.isEnabled()) return;
+
+        Instant horizon = Instant.now().minus(queryResultCache.immutableAfter());
+        Set<String> late = new HashSet<>();
+        for (ProcessedMetric metric : batch) {
+            if (metric.getProcessedTimestamp().isBefore(horizon)) {
+                late.add(metric.getMetricName());
+            }
+        }
+        late.forEach(queryResultCache::invalidate);
+    }
+
+    private void writeSamples(List<ProcessedMetric> batch) {
+        if (writeMode == StoreWriteMode.UPSERT) {
+            // Joins the rollup transaction when there is one
+            transaction.executeWithoutResult(status -> upsert(batch));
+            return;
+        }
+        if (writeMode == StoreWriteMode.COPY) {
+            try {
+                // Inside a transaction a failed COPY must only roll back to its savepoint
+                savepoint.executeWithoutResult(status -> copy(batch));
+                return;
+            } catch (Exception e) {
+                // COPY is a single statement, so nothing of the batch was written
+                copyFallbacks.increment();
+                log.warn("COPY of {} metrics failed, falling back to INSERT: {}", batch.size(), e.getMessage());
+            }
+        }
+        insert(batch);
+    }
+
+    private void insert(List<ProcessedMetric> batch) {
         log.info("Batch insert begun");
         jdbcTemplate.batchUpdate(
             INSERT_SQL,
@@ -30,13 +199,188 @@ public class MetricStoreRepository {
             batch.size(),
             (statement, metric) -> {
                 statement.setObject(1, Timestamp.from(metric.getProcessedTimestamp()));
+                statement.setLong(2, metric.getSeriesId());
+                statement.setObject(3, metric.getValue());
+                statement.setBytes(4, metric.getSketch());
+            }
+        );
+        log.info("Batch insert successful");
+    }
+
+    /**
+     * Keeps one row per (series, window), holding the latest write of that window: within
+     * the batch the last sample of a key wins, and a stored row is replaced rather than
+     * added to. A redelivered sample therefore rewrites the same row with the same value
+     * and sketch. Requires the unique {@code (series_id, ts)} index, see
+     * {@link #ensureSchema}.
+     *
+     * @return the change each upserted row made, for the rollup tiers; empty when rollups
+     * are off, in which case the stored rows are not read
+     */
+    private List<RollupWriter.Change> upsert(List<ProcessedMetric> batch) {
+        Map<SeriesBucket, ProcessedMetric> rows = latestPerWindow(batch);
+
+        Map<SeriesBucket, Double> stored = rollupWriter.isEnabled() ? storedValues(rows.keySet()) : Map.of();
+
+        List<ProcessedMetric> values = new ArrayList<>(rows.values());
+        jdbcTemplate.batchUpdate(
+            UPSERT_SQL,
+            values,
+            values.size(),
+            (statement, metric) -> {
+                statement.setObject(1, Timestamp.from(metric.getProcessedTimestamp()));
+                statement.setLong(2, metric.getSeriesId());
+                statement.setObject(3, metric.getValue());
+                statement.setBytes(4, metric.getSketch());
+            }
+        );
+
+        return rollupWriter.isEnabled() ? changes(rows, stored) : List.of();
+    }
+
+    /**
+     * Collapses a batch to its last sample per (series, window). One upsert statement may
+     * not touch the same row twice, and later samples replace earlier ones anyway.
+     */
+    static Map<SeriesBucket, ProcessedMetric> latestPerWindow(List<ProcessedMetric> batch) {
+        Map<SeriesBucket, ProcessedMetric> rows = new LinkedHashMap<>();
+        for (ProcessedMetric metric : batch) {
+            rows.put(new SeriesBucket(metric.getSeriesId(), metric.getProcessedTimestamp().getEpochSecond()), metric);
+        }
+        return rows;
+    }
+
+    // Keys of rows that exist map to their value, which may be null
+    private Map<SeriesBucket, Double> storedValues(Set<SeriesBucket> keys) {
+        Long[] seriesIds = new Long[keys.size()];
+        Long[] timestamps = new Long[keys.size()];
+        int i = 0;
+        for (SeriesBucket key : keys) {
+            seriesIds[i] = key.seriesId;
+            timestamps[i] = key.epochSecond;
+            i++;
+        }
+
+        Map<SeriesBucket, Double> stored = new HashMap<>();
+        jdbcTemplate.query(SELECT_STORED_SQL, (RowCallbackHandler) rs -> stored.put(
+                new SeriesBucket(rs.getLong("series_id"), rs.getLong("ts_epoch")),
+                rs.getObject("value") == null ? null : rs.getDouble("value")),
+                seriesIds, timestamps);
+        return stored;
+    }
+
+    /**
+     * What replacing the stored rows with {@code rows} changes in the tiers. The sum moves
+     * by the difference of the values and the count by one when a value appears or
+     * disappears. A t-digest cannot be taken out of a tier again, so only a row that did
+     * not exist yet brings its sketch; a replaced row keeps the sketch it first brought.
+     * Rewriting a row with the value it already has changes nothing.
+     */
+    static List<RollupWriter.Change> changes(Map<SeriesBucket, ProcessedMetric> rows, Map<SeriesBucket, Double> stored) {
+        List<RollupWriter.Change> changes = new ArrayList<>(rows.size());
+        rows.forEach((key, row) -> {
+            boolean existed = stored.containsKey(key);
+            Double before = stored.get(key);
+            Double after = row.getValue();
+            changes.add(new RollupWriter.Change(
+                    key.seriesId,
+                    key.epochSecond,
+                    (after == null ? 0 : after) - (before == null ? 0 : before),
+                    (after == null ? 0 : 1) - (before == null ? 0 : 1),
+                    existed ? null : row.getSketch()));
+        });
+        return changes;
+    }
+
+    /**
+     * Makes sure every series in the batch has its {@code series} row, so samples only
+     * carry the series ID. Series written before are remembered locally and skipped;
+     * concurrent writers of the same new series are resolved by {@code ON CONFLICT}.
+     */
+    private void registerSeries(List<ProcessedMetric> batch) {
+        Map<Long, ProcessedMetric> unknown = new LinkedHashMap<>();
+        for (ProcessedMetric metric : batch) {
+            if (metric.getSeriesId() == null) {
+                // Records encoded before series IDs were carried on the topic
+                metric.setSeriesId(seriesRegistry.seriesId(metric.getMetricName(), seriesRegistry.labels(metric.getLabels())));
+            }
+            if (!knownSeries.containsKey(metric.getSeriesId())) {
+                unknown.putIfAbsent(metric.getSeriesId(), metric);
+            }
+        }
+        if (unknown.isEmpty()) return;
+
+        List<ProcessedMetric> series = new ArrayList<>(unknown.values());
+        jdbcTemplate.batchUpdate(
+            SERIES_INSERT_SQL,
+            series,
+            series.size(),
+            (statement, metric) -> {
+                statement.setLong(1, metric.getSeriesId());
                 statement.setString(2, metric.getMetricName());
                 statement.setString(3, String.valueOf(metric.getMetricType()));
-                statement.setObject(4, metric.getValue());
-                statement.setBytes(5, metric.getSketch());
-                statement.setObject(6, metric.getLabels(), Types.OTHER);
+                statement.setObject(4, metric.getLabels(), Types.OTHER);
             }
         );
-        log.info("Batch insert successful");
+        unknown.keySet().forEach(seriesId -> knownSeries.put(seriesId, Boolean.TRUE));
+    }
+
+    /**
+     * Streams the batch through {@code COPY ... FROM STDIN} in binary format: one round
+     * trip for the whole batch and no per-row statement or text parsing on the server.
+     */
+    private void copy(List<ProcessedMetric> batch) {
+        jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            PGCopyOutputStream copy = new PGCopyOutputStream(
+                    connection.unwrap(PGConnection.class), COPY_SQL, COPY_BUFFER_SIZE);
+            try {
+                DataOutputStream out = new DataOutputStream(copy);
+                out.write(COPY_SIGNATURE);
+                out.writeInt(0); // flags
+                out.writeInt(0); // header extension length
+
+                for (ProcessedMetric metric : batch) {
+                    writeRow(out, metric);
+                }
+
+                out.writeShort(COPY_TRAILER);
+                out.flush();
+                return copy.endCopy();
+            } catch (IOException e) {
+                if (copy.isActive()) {
+                    copy.cancelCopy();
+                }
+                throw new SQLException("COPY into metric_samples failed", e);
+            }
+        });
+    }
+
+    private void writeRow(DataOutputStream out, ProcessedMetric metric) throws IOException {
+        out.writeShort(COPY_FIELD_COUNT);
+
+        Instant ts = metric.getProcessedTimestamp();
+        out.writeInt(8);
+        out.writeLong((ts.getEpochSecond() - PG_EPOCH_SECONDS) * 1_000_000L + ts.getNano() / 1_000);
+
+        out.writeInt(8);
+        out.writeLong(metric.getSeriesId());
+
+        if (metric.getValue() == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(8);
+            out.writeDouble(metric.getValue());
+        }
+
+        writeBytes(out, metric.getSketch());
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
     }
 }
@@ -0,0 +1,98 @@
+package com.metrics.services.store;
+
+import com.metrics.config.AppConfigStore;
+import com.metrics.models.common.RollupTier;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Tracks since when the {@link RollupTier} tables hold every sample.
+ * <p>
+ * Tiers are only maintained by flushes, so samples written before rollups were enabled,
+ * or while they were disabled on any instance, are missing from them. The first startup
+ * with rollups enabled records its time in {@code rollup_coverage}; a startup with them
+ * disabled clears it, so coverage restarts once they are back on. Queries whose range
+ * starts before the first tier bucket after that time read raw samples instead. The
+ * table is created by {@code init.sql}.
+ */
+@Component
+@Slf4j
+public class RollupCoverage {
+
+    private static final String START_SQL = """
+        INSERT INTO rollup_coverage (id, since) VALUES (1, now())
+        ON CONFLICT (id) DO NOTHING
+        """;
+
+    private static final String CLEAR_SQL = "DELETE FROM rollup_coverage";
+
+    private static final String SELECT_SQL = """
+        SELECT extract(epoch from since)::bigint FROM rollup_coverage WHERE id = 1
+        """;
+
+    // Other instances only change coverage when they start, so a stale value is brief
+    private static final long REFRESH_MILLIS = Duration.ofMinutes(1).toMillis();
+
+    private final JdbcTemplate jdbcTemplate;
+    private final AppConfigStore appConfigStore;
+
+    private volatile long since = Long.MAX_VALUE;
+    private volatile long loadedAt;
+
+    public RollupCoverage(JdbcTemplate jdbcTemplate, AppConfigStore appConfigStore) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.appConfigStore = appConfigStore;
+    }
+
+    @PostConstruct
+    public void register() {
+        if (appConfigStore.isRollupEnabled()) {
+            jdbcTemplate.update(START_SQL);
+            refresh();
+            log.info("Rollup tiers cover samples from epoch second {}", since);
+        } else {
+            jdbcTemplate.update(CLEAR_SQL);
+        }
+    }
+
+    /**
+     * Coarsest tier that tiles {@code step} and covers every bucket from
+     * {@code fromEpoch} on, or {@code null} when the query has to read raw samples.
+     */
+    public RollupTier tierFor(Duration step, long fromEpoch) {
+        if (!appConfigStore.isRollupEnabled()) return null;
+
+        RollupTier tier = RollupTier.coarsestFor(step);
+        if (tier == null) return null;
+
+        long start = since();
+        if (start == Long.MAX_VALUE) return null;
+
+        // The tier bucket holding the coverage start may miss earlier samples
+        long coveredFrom = Math.floorDiv(start + tier.getSeconds() - 1, tier.getSeconds()) * tier.getSeconds();
+        return fromEpoch >= coveredFrom ? tier : null;
+    }
+
+    private long since() {
+        if (System.currentTimeMillis() - loadedAt > REFRESH_MILLIS) {
+            refresh();
+        }
+        return since;
+    }
+
+    private void refresh() {
+        try {
+            List<Long> rows = jdbcTemplate.queryForList(SELECT_SQL, Long.class);
+            since = rows.isEmpty() ? Long.MAX_VALUE : rows.get(0);
+        } catch (Exception e) {
+            // Keeps the last known coverage; raw samples remain correct either way
+            log.warn("Failed to read rollup coverage: {}", e.getMessage());
+        }
+        loadedAt = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,192 @@
+package com.metrics.services.store;
+
+import com.metrics.config.AppConfigStore;
+import com.metrics.models.check.ProcessedMetric;
+import com.metrics.models.common.RollupTier;
+import com.metrics.utils.TDigestSketch;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Folds each flushed batch into the {@link RollupTier} tables.
+ * <p>
+ * Sums and counts could be added in SQL, but t-digests have to be merged here, so each
+ * tier is a read-merge-write: the affected rows are read and locked, the batch's
+ * partial sketches are merged into them, and the results are upserted. Runs inside the
+ * transaction that writes the raw samples, so tiers and samples never diverge. Only a
+ * single writer per series is expected (series are routed to one lane, and metrics to
+ * one partition), so rows created concurrently by two writers are not re-merged.
+ * <p>
+ * Tiers are maintained from {@link Change}s, the difference each raw row write made.
+ * An inserted sample adds its value and one to the count. An upserted sample, which
+ * replaces an existing row, adds only the difference to the stored value, so the tiers
+ * always hold the sum and count of the raw rows.
+ */
+@Component
+@Slf4j
+public class RollupWriter {
+
+    private static final String SELECT_SQL = """
+        SELECT series_id, extract(epoch from bucket)::bigint AS bucket_epoch, sketch
+        FROM %s
+        WHERE (series_id, bucket) IN (
+            SELECT k.series_id, to_timestamp(k.bucket_epoch)
+            FROM unnest(?::bigint[], ?::bigint[]) AS k(series_id, bucket_epoch)
+        )
+        FOR UPDATE
+        """;
+
+    private static final String UPSERT_SQL = """
+        INSERT INTO %1$s (
+            bucket, series_id, value_sum, value_count, sketch
+        ) VALUES (?, ?, ?, ?, ?)
+        ON CONFLICT (series_id, bucket) DO UPDATE SET
+            value_sum = %1$s.value_sum + EXCLUDED.value_sum,
+            value_count = %1$s.value_count + EXCLUDED.value_count,
+            sketch = EXCLUDED.sketch
+        """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final AppConfigStore appConfigStore;
+    private final Map<RollupTier, String> selectSql = new EnumMap<>(RollupTier.class);
+    private final Map<RollupTier, String> upsertSql = new EnumMap<>(RollupTier.class);
+
+    public RollupWriter(JdbcTemplate jdbcTemplate, AppConfigStore appConfigStore) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.appConfigStore = appConfigStore;
+        for (RollupTier tier : RollupTier.values()) {
+            selectSql.put(tier, String.format(SELECT_SQL, tier.getTable()));
+            upsertSql.put(tier, String.format(UPSERT_SQL, tier.getTable()));
+        }
+    }
+
+    public boolean isEnabled() {
+        return appConfigStore.isRollupEnabled();
+    }
+
+    /**
+     * Folds a batch of inserted samples, one raw row each.
+     */
+    public void merge(List<ProcessedMetric> batch) {
+        List<Change> changes = new ArrayList<>(batch.size());
+        for (ProcessedMetric metric : batch) {
+            Double value = metric.getValue();
+            changes.add(new Change(metric.getSeriesId(), metric.getProcessedTimestamp().getEpochSecond(),
+                    value == null ? 0 : value, value == null ? 0 : 1, metric.getSketch()));
+        }
+        apply(changes);
+    }
+
+    void apply(List<Change> changes) {
+        Map<RollupTier, Map<SeriesBucket, Partial>> partials = new EnumMap<>(RollupTier.class);
+        for (RollupTier tier : RollupTier.values()) {
+            partials.put(tier, new LinkedHashMap<>());
+        }
+
+        for (Change change : changes) {
+            // Deserialized once and merged into every tier
+            TDigestSketch sketch = change.sketch == null || change.sketch.length == 0
+                    ? null : TDigestSketch.deserialize(change.sketch);
+
+            for (RollupTier tier : RollupTier.values()) {
+                SeriesBucket key = new SeriesBucket(change.seriesId, Math.floorDiv(change.epochSecond, tier.getSeconds()) * tier.getSeconds());
+                partials.get(tier).computeIfAbsent(key, k -> new Partial()).add(change.sum, change.count, sketch);
+            }
+        }
+
+        partials.forEach(this::write);
+    }
+
+    private void write(RollupTier tier, Map<SeriesBucket, Partial> partials) {
+        if (partials.isEmpty()) return;
+
+        Long[] seriesIds = new Long[partials.size()];
+        Long[] buckets = new Long[partials.size()];
+        int i = 0;
+        for (SeriesBucket key : partials.keySet()) {
+            seriesIds[i] = key.seriesId;
+            buckets[i] = key.epochSecond;
+            i++;
+        }
+
+        Map<SeriesBucket, byte[]> existing = new HashMap<>();
+        jdbcTemplate.query(selectSql.get(tier), (RowCallbackHandler) rs ->
+                existing.put(new SeriesBucket(rs.getLong("series_id"), rs.getLong("bucket_epoch")), rs.getBytes("sketch")),
+                seriesIds, buckets);
+
+        List<Map.Entry<SeriesBucket, Partial>> rows = new ArrayList<>(partials.entrySet());
+        jdbcTemplate.batchUpdate(upsertSql.get(tier), rows, rows.size(), (statement, row) -> {
+            SeriesBucket key = row.getKey();
+            Partial partial = row.getValue();
+
+            statement.setObject(1, Timestamp.from(Instant.ofEpochSecond(key.epochSecond)));
+            statement.setLong(2, key.seriesId);
+            statement.setDouble(3, partial.sum);
+            statement.setLong(4, partial.count);
+            statement.setBytes(5, partial.mergedSketch(existing.get(key)));
+        });
+    }
+
+    /**
+     * What one raw row write adds to the tiers: the change of the row's value, the change
+     * of the number of rows with a value and the sketch to merge, if any.
+     */
+    static final class Change {
+
+        final long seriesId;
+        final long epochSecond;
+        final double sum;
+        final long count;
+        final byte[] sketch;
+
+        Change(long seriesId, long epochSecond, double sum, long count, byte[] sketch) {
+            this.seriesId = seriesId;
+            this.epochSecond = epochSecond;
+            this.sum = sum;
+            this.count = count;
+            this.sketch = sketch;
+        }
+    }
+
+    private static final class Partial {
+
+        private double sum;
+        private long count;
+        private TDigestSketch sketch;
+
+        void add(double valueSum, long valueCount, TDigestSketch other) {
+            sum += valueSum;
+            count += valueCount;
+            if (other != null) {
+                if (sketch == null) {
+                    sketch = TDigestSketch.create();
+                }
+                sketch.merge(other);
+            }
+        }
+
+        byte[] mergedSketch(byte[] existing) {
+            if (existing == null || existing.length == 0) {
+                return sketch == null ? null : sketch.serialize();
+            }
+            if (sketch == null) {
+                return existing;
+            }
+
+            TDigestSketch merged = TDigestSketch.deserialize(existing);
+            merged.merge(sketch);
+            return merged.serialize();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.metrics.services.store;
+
+import com.metrics.config.AppConfigStore;
+import com.metrics.kafka.ProcessedMetricCodec;
+import com.metrics.models.check.ProcessedMetric;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Optional write-ahead spool between the store listener and the database.
+ * <p>
+ * When {@code store.spool.enabled} is set, the listener only appends each record to the
+ * current memory-mapped segment file under {@code store.spool.directory} and returns, so
+ * ingest is bounded by disk rather than heap or database speed. A reader thread decodes
+ * records in order and feeds them to {@link StoreWriter}. A segment is deleted once it is
+ * sealed, fully read, and every record read from it has been written to Postgres.
+ * <p>
+ * Segments left over from a previous run are replayed from the start on startup, so rows
+ * of a partially stored segment may be written twice. Segments are forced to disk when
+ * sealed and on shutdown; an unsealed segment survives a process crash but not a power
+ * loss.
+ */
+@Component
+@Slf4j
+public class SegmentSpool {
+
+    private static final int MAGIC = 0x53504F4C; // "SPOL"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int LENGTH_BYTES = 4;
+    private static final long IDLE_WAIT_MS = 100;
+
+    private final StoreWriter storeWriter;
+    private final ProcessedMetricCodec processedMetricCodec;
+    private final AppConfigStore appConfigStore;
+
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Object appended = new Object();
+
+    private Segment writeSegment;
+    private Thread reader;
+    private volatile boolean running;
+
+    public SegmentSpool(
+            StoreWriter storeWriter,
+            ProcessedMetricCodec processedMetricCodec,
+            AppConfigStore appConfigStore,
+            MeterRegistry meterRegistry
+    ) {
+        this.storeWriter = storeWriter;
+        this.processedMetricCodec = processedMetricCodec;
+        this.appConfigStore = appConfigStore;
+
+        meterRegistry.gauge("metrics.store.spool.segments", segments, Map::size);
+    }
+
+    public boolean isEnabled() {
+        return appConfigStore.isStoreSpoolEnabled();
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!isEnabled()) return;
+
+        Path directory = directory();
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : files.filter(p -> p.getFileName().toString().endsWith(".spool")).toList()) {
+                Segment segment = Segment.recover(path);
+                segments.put(segment.sequence, segment);
+            }
+        }
+        if (!segments.isEmpty()) {
+            log.info("Replaying {} spool segments from {}", segments.size(), directory);
+        }
+
+        long next = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        writeSegment = Segment.create(directory, next, appConfigStore.getStoreSpoolSegmentSize());
+        segments.put(next, writeSegment);
+
+        running = true;
+        reader = new Thread(this::read, "metrics-store-spool-reader");
+        reader.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (!isEnabled()) return;
+
+        running = false;
+        reader.interrupt();
+        reader.join(10_000);
+        for (Segment segment : segments.values()) {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * Appends one encoded {@link ProcessedMetric} record, rolling to a new segment when the
+     * current one is full.
+     */
+    public void append(byte[] record) {
+        synchronized (appended) {
+            if (!writeSegment.hasRoom(record.length)) {
+                writeSegment.seal();
+                long next = writeSegment.sequence + 1;
+                int size = Math.max(appConfigStore.getStoreSpoolSegmentSize(), HEADER_BYTES + LENGTH_BYTES + record.length);
+                try {
+                    writeSegment = Segment.create(directory(), next, size);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to create spool segment " + next, e);
+                }
+                segments.put(next, writeSegment);
+            }
+            writeSegment.append(record);
+            appended.notifyAll();
+        }
+    }
+
+    private void read() {
+        Map.Entry<Long, Segment> current = segments.firstEntry();
+
+        while (running && current != null) {
+            Segment segment = current.getValue();
+            try {
+                byte[] record = segment.next();
+                if (record != null) {
+                    dispatch(segment, record);
+                } else if (segment.sealed && !segment.hasUnread()) {
+                    segment.fullyRead = true;
+                    release(segment);
+                    current = segments.higherEntry(segment.sequence);
+                } else {
+                    synchronized (appended) {
+                        if (!segment.hasUnread() && !segment.sealed) {
+                            appended.wait(IDLE_WAIT_MS);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void dispatch(Segment segment, byte[] record) throws InterruptedException {
+        ProcessedMetric metric;
+        try {
+            metric = processedMetricCodec.decode(record);
+        } catch (IOException e) {
+            log.error("Skipping undecodable spool record in segment {}: {}", segment.sequence, e.getMessage());
+            return;
+        }
+
+        segment.unstored.incrementAndGet();
+        storeWriter.put(metric, () -> {
+            if (segment.unstored.decrementAndGet() == 0) {
+                release(segment);
+            }
+        });
+    }
+
+    private void release(Segment segment) {
+        if (!segment.fullyRead || segment.unstored.get() != 0) return;
+        if (segments.remove(segment.sequence, segment)) {
+            segment.delete();
+        }
+    }
+
+    private Path directory() {
+        return Paths.get(appConfigStore.getStoreSpoolDirectory());
+    }
+
+    /**
+     * One spool file: an 8-byte header followed by length-prefixed records. A zero length
+     * marks the end of the written data. The writer publishes {@link #committed} only after
+     * a record is fully written, so the reader never sees a partial record.
+     */
+    private static final class Segment {
+
+        final long sequence;
+        final Path path;
+        final MappedByteBuffer buffer;
+        final AtomicInteger unstored = new AtomicInteger();
+
+        volatile int committed;
+        volatile boolean sealed;
+        volatile boolean fullyRead;
+        int readPosition = HEADER_BYTES; // reader thread only
+
+        private Segment(long sequence, Path path, MappedByteBuffer buffer, int committed) {
+            this.sequence = sequence;
+            this.path = path;
+            this.buffer = buffer;
+            this.committed = committed;
+        }
+
+        static Segment create(Path directory, long sequence, int size) throws IOException {
+            Path path = directory.resolve(String.format("segment-%020d.spool", sequence));
+            MappedByteBuffer buffer = map(path, size);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            return new Segment(sequence, path, buffer, HEADER_BYTES);
+        }
+
+        static Segment recover(Path path) throws IOException {
+            String name = path.getFileName().toString();
+            long sequence = Long.parseLong(name.substring("segment-".length(), name.length() - ".spool".length()));
+            MappedByteBuffer buffer = map(path, (int) Files.size(path));
+            if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a spool segment: " + path);
+            }
+
+            int position = HEADER_BYTES;
+            while (position + LENGTH_BYTES <= buffer.capacity()) {
+                int length = buffer.getInt(position);
+                if (length <= 0 || position + LENGTH_BYTES + length > buffer.capacity()) break;
+                position += LENGTH_BYTES + length;
+            }
+
+            Segment segment = new Segment(sequence, path, buffer, position);
+            segment.sealed = true;
+            return segment;
+        }
+
+        private static MappedByteBuffer map(Path path, int size) throws IOException {
+            try (FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        boolean hasRoom(int length) {
+            return committed + LENGTH_BYTES + length <= buffer.capacity();
+        }
+
+        void append(byte[] record) {
+            int position = committed;
+            buffer.put(position + LENGTH_BYTES, record);
+            buffer.putInt(position, record.length);
+            committed = position + LENGTH_BYTES + record.length;
+        }
+
+        boolean hasUnread() {
+            return readPosition < committed;
+        }
+
+        byte[] next() {
+            if (!hasUnread()) return null;
+
+            int length = buffer.getInt(readPosition);
+            byte[] record = new byte[length];
+            buffer.get(readPosition + LENGTH_BYTES, record);
+            readPosition += LENGTH_BYTES + length;
+            return record;
+        }
+
+        void seal() {
+            buffer.force();
+            sealed = true;
+        }
+
+        void delete() {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("Failed to delete stored spool segment {}: {}", path, e.getMessage());
+            }
+        }
+    }
+}
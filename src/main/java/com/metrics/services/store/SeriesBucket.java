@@ -0,0 +1,27 @@
+package com.metrics.services.store;
+
+/**
+ * A series at one bucket start (epoch seconds), used to key read-merge-write batches.
+ */
+final class SeriesBucket {
+
+    final long seriesId;
+    final long epochSecond;
+
+    SeriesBucket(long seriesId, long epochSecond) {
+        this.seriesId = seriesId;
+        this.epochSecond = epochSecond;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SeriesBucket other)) return false;
+        return seriesId == other.seriesId && epochSecond == other.epochSecond;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(seriesId) + Long.hashCode(epochSecond);
+    }
+}
@@ -0,0 +1,104 @@
+package com.metrics.services.store;
+
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Releases store listener acknowledgments only once records are in Postgres.
+ * <p>
+ * Writer lanes finish out of offset order, so acknowledging each record as its own batch
+ * lands would commit past records still buffered in a slower lane. Instead records are
+ * tracked per partition in offset order, and only the latest record of the fully stored
+ * prefix is acknowledged. After a crash, at most the records still buffered are replayed.
+ */
+@Component
+public class StoreAckTracker {
+
+    private final Map<Integer, PartitionAcks> partitions = new ConcurrentHashMap<>();
+
+    /**
+     * Registers a record in offset order; the returned callback marks it as stored.
+     */
+    public Runnable track(int partition, Acknowledgment acknowledgment) {
+        PartitionAcks acks = partitions.computeIfAbsent(partition, p -> new PartitionAcks());
+        Pending pending = new Pending(acks, acknowledgment);
+        synchronized (acks) {
+            acks.inFlight.addLast(pending);
+        }
+        return pending;
+    }
+
+    /**
+     * Forgets the most recently tracked record of a partition, which the store did not
+     * accept and which will be redelivered.
+     */
+    public void untrack(int partition, Runnable tracked) {
+        PartitionAcks acks = partitions.get(partition);
+        if (acks == null) return;
+
+        synchronized (acks) {
+            acks.inFlight.removeLastOccurrence(tracked);
+        }
+    }
+
+    /**
+     * Forgets revoked partitions. Their unacknowledged records are redelivered to the new
+     * owner, and late callbacks for them become no-ops.
+     */
+    public void revoke(Collection<Integer> revoked) {
+        for (Integer partition : revoked) {
+            PartitionAcks acks = partitions.remove(partition);
+            if (acks != null) {
+                acks.revoke();
+            }
+        }
+    }
+
+    private static final class PartitionAcks {
+
+        private final Deque<Pending> inFlight = new ArrayDeque<>();
+        private boolean revoked;
+
+        synchronized void revoke() {
+            revoked = true;
+            inFlight.clear();
+        }
+
+        synchronized void stored(Pending pending) {
+            if (revoked) return;
+            pending.stored = true;
+
+            Pending last = null;
+            while (!inFlight.isEmpty() && inFlight.peekFirst().stored) {
+                last = inFlight.pollFirst();
+            }
+            // Acknowledged under the lock so commits for a partition never go backwards
+            if (last != null) {
+                last.acknowledgment.acknowledge();
+            }
+        }
+    }
+
+    private static final class Pending implements Runnable {
+
+        private final PartitionAcks acks;
+        private final Acknowledgment acknowledgment;
+        private boolean stored;
+
+        private Pending(PartitionAcks acks, Acknowledgment acknowledgment) {
+            this.acks = acks;
+            this.acknowledgment = acknowledgment;
+        }
+
+        @Override
+        public void run() {
+            acks.stored(this);
+        }
+    }
+}
@@ -1,69 +1,104 @@
 package com.metrics.services.store;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.metrics.config.AppConfigStore;
-import com.metrics.exceptions.MetricFlushException;
+import com.metrics.kafka.ProcessedMetricCodec;
 import com.metrics.models.check.ProcessedMetric;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.ConsumerSeekAware;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Component;
+
 import java.time.Duration;
-import java.time.Instant;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Collection;
 
 import static com.metrics.constants.Constants.KafkaConstants.METRICS_PROCESSED_TOPIC;
+import static com.metrics.constants.Constants.KafkaConstants.METRICS_STORE_LISTENER_ID;
 
 
 @Component
 @RequiredArgsConstructor
 @Slf4j
-public class StoreConsumer {
+public class StoreConsumer implements ConsumerSeekAware {
 
-    private final MetricStoreRepository metricStoreRepository;
-    private final ObjectMapper objectMapper;
-    private final AppConfigStore appConfigStore;
+    private static final Duration REDELIVERY_DELAY = Duration.ofMillis(100);
 
-    private final Queue<ProcessedMetric> buffer = new ConcurrentLinkedQueue<>();
-    private volatile Instant lastFlush = Instant.now();
-    private final ReentrantLock flushLock = new ReentrantLock();
+    private final ProcessedMetricCodec processedMetricCodec;
+    private final StoreWriter storeWriter;
+    private final SegmentSpool segmentSpool;
+    private final StoreAckTracker storeAckTracker;
+    private final AppConfigStore appConfigStore;
 
 
-    @KafkaListener(topics = METRICS_PROCESSED_TOPIC, groupId = "metrics-store")
-    public void consume(String message) throws Exception {
-        ProcessedMetric metric = objectMapper.readValue(message, ProcessedMetric.class);
-        buffer.add(metric);
+    @KafkaListener(
+            id = METRICS_STORE_LISTENER_ID,
+            topics = METRICS_PROCESSED_TOPIC,
+            groupId = "metrics-store",
+            containerFactory = "storeListenerContainerFactory"
+    )
+    public void consume(ConsumerRecord<String, byte[]> record, Acknowledgment acknowledgment) throws Exception {
+        if (segmentSpool.isEnabled()) {
+            // Durable once spooled
+            segmentSpool.append(record.value());
+            acknowledgment.acknowledge();
+            return;
+        }
 
-        if (shouldFlush()) {
-            flushLock.lock();
-            try {
-                if (shouldFlush()) flush();
-            } finally {
-                flushLock.unlock();
+        if (!appConfigStore.isStoreAckAfterFlush()) {
+            ProcessedMetric metric = decode(record);
+            if (metric == null || storeWriter.submit(metric, null)) {
+                acknowledgment.acknowledge();
+            } else {
+                redeliver(acknowledgment);
             }
+            return;
         }
-    }
 
+        // Tracked before decoding, so an undecodable record is acknowledged through the
+        // tracker too and never commits past records still buffered in a lane
+        Runnable tracked = storeAckTracker.track(record.partition(), acknowledgment);
+        ProcessedMetric metric = decode(record);
+        if (metric == null) {
+            tracked.run();
+            return;
+        }
 
-//  @Scheduled(fixedRate = 2000)
-    private void flush() {
-        List<ProcessedMetric> batch = new ArrayList<>();
-        ProcessedMetric m;
-        while ((m = buffer.poll()) != null && batch.size() < appConfigStore.getFlushBatchSize()) {
-            batch.add(m);
+        boolean accepted;
+        try {
+            accepted = storeWriter.submit(metric, tracked);
+        } catch (RuntimeException e) {
+            storeAckTracker.untrack(record.partition(), tracked);
+            throw e;
         }
-        if (!batch.isEmpty()) {
-            metricStoreRepository.batchInsert(batch);
-            lastFlush = Instant.now();
+        if (!accepted) {
+            storeAckTracker.untrack(record.partition(), tracked);
+            redeliver(acknowledgment);
         }
     }
 
-    private boolean shouldFlush() {
-        return buffer.size() >= appConfigStore.getFlushBatchSize() ||
-                Duration.between(lastFlush, Instant.now()).compareTo(appConfigStore.getFlushInterval()) > 0;
+    // Poison records are skipped here rather than by the container error handler, which
+    // would commit the record's offset regardless of the buffered records before it
+    private ProcessedMetric decode(ConsumerRecord<String, byte[]> record) {
+        try {
+            return processedMetricCodec.decode(record.value());
+        } catch (Exception e) {
+            log.error("Store skipped undecodable record {}-{}@{}: {}",
+                    record.topic(), record.partition(), record.offset(), e.getMessage(), e);
+            return null;
+        }
+    }
+
+    // The writer paused the container; the record and the rest of the poll come back once
+    // it resumes, while the consumer keeps polling and stays in the group
+    private void redeliver(Acknowledgment acknowledgment) {
+        acknowledgment.nack(REDELIVERY_DELAY);
+    }
+
+    @Override
+    public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+        storeAckTracker.revoke(partitions.stream().map(TopicPartition::partition).toList());
     }
 }
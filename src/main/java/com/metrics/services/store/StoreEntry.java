@@ -0,0 +1,19 @@
+package com.metrics.services.store;
+
+import com.metrics.models.check.ProcessedMetric;
+
+/**
+ * A buffered metric plus the callback to run once it has been written to the database.
+ */
+final class StoreEntry {
+
+    private static final Runnable NO_OP = () -> { };
+
+    final ProcessedMetric metric;
+    final Runnable onStored;
+
+    StoreEntry(ProcessedMetric metric, Runnable onStored) {
+        this.metric = metric;
+        this.onStored = onStored != null ? onStored : NO_OP;
+    }
+}
@@ -0,0 +1,164 @@
+package com.metrics.services.store;
+
+import com.metrics.config.AppConfigStore;
+import com.metrics.kafka.MessagePublisher;
+import com.metrics.models.check.ProcessedMetric;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static com.metrics.constants.Constants.KafkaConstants.METRICS_PROCESSED_DLT_TOPIC;
+import static com.metrics.constants.Constants.KafkaConstants.METRICS_STORE_LISTENER_ID;
+
+/**
+ * Buffers processed metrics between the store listener and the database.
+ * <p>
+ * Metrics are routed by series ID (or metric name for records without one) to one of
+ * {@code store.lanes} {@link StoreWriterLane}s. Each lane has a bounded buffer and a
+ * flusher thread that writes a batch once {@code store.flushBatchSize} metrics are
+ * waiting or {@code store.flushInterval} has passed since the oldest of them arrived.
+ * Lanes flush independently, each on its own pooled connection, and a series always
+ * lands in the same lane, so its rows are written in order.
+ * <p>
+ * When any lane fills up the store listener is paused and the record that did not fit is
+ * handed back to the listener for redelivery, so the consumer thread never blocks on a
+ * lane. The listener is resumed once every lane has drained to half its capacity.
+ * <p>
+ * Metrics the database rejects for good are published as JSON to
+ * {@code metrics-processed-dlt} and then acknowledged, see {@link StoreWriterLane}.
+ */
+@Component
+@Slf4j
+public class StoreWriter {
+
+    private static final long DEAD_LETTER_TIMEOUT_MS = 30_000;
+
+    private final KafkaListenerEndpointRegistry listenerRegistry;
+    private final AppConfigStore appConfigStore;
+    private final MessagePublisher messagePublisher;
+    private final StoreWriterLane[] lanes;
+
+    private volatile boolean paused;
+
+    public StoreWriter(
+            MetricStoreRepository metricStoreRepository,
+            KafkaListenerEndpointRegistry listenerRegistry,
+            MessagePublisher messagePublisher,
+            AppConfigStore appConfigStore,
+            MeterRegistry meterRegistry
+    ) {
+        this.listenerRegistry = listenerRegistry;
+        this.messagePublisher = messagePublisher;
+        this.appConfigStore = appConfigStore;
+
+        int laneCount = Math.max(1, appConfigStore.getStoreLanes());
+        int laneCapacity = Math.max(appConfigStore.getFlushBatchSize(), appConfigStore.getStoreBufferCapacity() / laneCount);
+        this.lanes = new StoreWriterLane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new StoreWriterLane(
+                    i,
+                    metricStoreRepository,
+                    appConfigStore.getFlushBatchSize(),
+                    appConfigStore.getFlushInterval(),
+                    laneCapacity,
+                    appConfigStore.isStoreSpoolEnabled() || appConfigStore.isStoreAckAfterFlush(),
+                    meterRegistry,
+                    this::resumeIfDrained,
+                    this::deadLetter
+            );
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        for (StoreWriterLane lane : lanes) {
+            lane.start();
+        }
+    }
+
+    /**
+     * Flushes whatever is still buffered. Listener containers are stopped before beans are
+     * destroyed, so nothing is enqueued after this point.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        Duration timeout = appConfigStore.getFlushInterval().plusSeconds(10);
+        for (StoreWriterLane lane : lanes) {
+            lane.stop(timeout);
+        }
+    }
+
+    /**
+     * Enqueues a metric for its lane's next flush; {@code onStored} (may be null) runs once
+     * it has been written. Never blocks: when that lane is full the store listener is
+     * paused and {@code false} is returned, and the caller must have the record redelivered
+     * once the listener resumes.
+     */
+    public boolean submit(ProcessedMetric metric, Runnable onStored) {
+        if (lanes[laneOf(metric)].offer(new StoreEntry(metric, onStored))) return true;
+
+        pause();
+        return false;
+    }
+
+    /**
+     * Like {@link #submit} but only blocks when the lane is full, leaving the listener
+     * running. Used by the spool reader, which the listener does not wait on.
+     */
+    public void put(ProcessedMetric metric, Runnable onStored) throws InterruptedException {
+        lanes[laneOf(metric)].put(new StoreEntry(metric, onStored));
+    }
+
+    private void deadLetter(ProcessedMetric metric) {
+        String key = metric.getSeriesId() != null ? String.valueOf(metric.getSeriesId()) : metric.getMetricName();
+        try {
+            messagePublisher.publish(METRICS_PROCESSED_DLT_TOPIC, key, metric)
+                    .get(DEAD_LETTER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while dead-lettering", e);
+        } catch (Exception e) {
+            throw new IllegalStateException("Dead-letter publish failed: " + e.getMessage(), e);
+        }
+    }
+
+    private int laneOf(ProcessedMetric metric) {
+        long hash = metric.getSeriesId() != null
+                ? metric.getSeriesId()
+                : String.valueOf(metric.getMetricName()).hashCode();
+        // Series IDs are already well mixed; fold the high bits in for name hashes
+        return (int) Math.floorMod(hash ^ (hash >>> 32), (long) lanes.length);
+    }
+
+    private synchronized void pause() {
+        if (paused) return;
+
+        MessageListenerContainer container = listenerRegistry.getListenerContainer(METRICS_STORE_LISTENER_ID);
+        if (container != null) {
+            log.debug("Store buffer full, pausing {}", METRICS_STORE_LISTENER_ID);
+            paused = true;
+            container.pause();
+        }
+    }
+
+    private synchronized void resumeIfDrained() {
+        if (!paused) return;
+        for (StoreWriterLane lane : lanes) {
+            if (!lane.isDrained()) return;
+        }
+
+        MessageListenerContainer container = listenerRegistry.getListenerContainer(METRICS_STORE_LISTENER_ID);
+        if (container != null) {
+            log.debug("Store buffer drained, resuming {}", METRICS_STORE_LISTENER_ID);
+            paused = false;
+            container.resume();
+        }
+    }
+}
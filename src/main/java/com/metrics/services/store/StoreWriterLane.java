@@ -0,0 +1,240 @@
+package com.metrics.services.store;
+
+import com.metrics.models.check.ProcessedMetric;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * One shard of the store pipeline: a bounded buffer drained by its own flusher thread.
+ * Each lane writes its batches one after another, so metrics routed to the same lane are
+ * stored in arrival order, while different lanes write concurrently on separate pooled
+ * connections. Entry callbacks run after their batch is written.
+ * <p>
+ * Transient failures (lost connections, serialization failures, timeouts) are retried with
+ * a backoff capped at {@link #MAX_RETRY_BACKOFF_MS}. A durable lane's entries can still be
+ * replayed, from the spool or from uncommitted Kafka offsets, so it keeps retrying them
+ * until they succeed or the lane stops, instead of dropping them. Any other
+ * {@link DataAccessException} will fail again however often it is retried, so the batch is
+ * split in halves until the failing metrics are isolated. Those are handed to the
+ * dead-letter consumer and their callbacks run, so the lane and the offsets behind them move on.
+ */
+@Slf4j
+class StoreWriterLane {
+
+    private static final int MAX_FLUSH_ATTEMPTS = 3;
+    static final long RETRY_BACKOFF_MS = 1_000;
+    static final long MAX_RETRY_BACKOFF_MS = 30_000;
+
+    private final int index;
+    private final MetricStoreRepository metricStoreRepository;
+    private final int batchSize;
+    private final long intervalNanos;
+    private final int capacity;
+    private final boolean durable;
+    private final BlockingQueue<StoreEntry> buffer;
+    private final Timer flushTimer;
+    private final Runnable afterFlush;
+    private final Consumer<ProcessedMetric> deadLetter;
+    private final Counter deadLettered;
+    private final Thread flusher;
+
+    private volatile boolean running;
+
+    StoreWriterLane(
+            int index,
+            MetricStoreRepository metricStoreRepository,
+            int batchSize,
+            Duration flushInterval,
+            int capacity,
+            boolean durable,
+            MeterRegistry meterRegistry,
+            Runnable afterFlush,
+            Consumer<ProcessedMetric> deadLetter
+    ) {
+        this.index = index;
+        this.metricStoreRepository = metricStoreRepository;
+        this.batchSize = batchSize;
+        this.intervalNanos = flushInterval.toNanos();
+        this.capacity = capacity;
+        this.durable = durable;
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.afterFlush = afterFlush;
+        this.deadLetter = deadLetter;
+        this.flusher = new Thread(this::run, "metrics-store-flusher-" + index);
+
+        String lane = String.valueOf(index);
+        meterRegistry.gauge("metrics.store.lane.depth", Tags.of("lane", lane),
+                buffer, BlockingQueue::size);
+        this.flushTimer = Timer.builder("metrics.store.flush")
+                .tag("lane", lane)
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.deadLettered = meterRegistry.counter("metrics.store.dead_lettered", "lane", lane);
+    }
+
+    void start() {
+        running = true;
+        flusher.start();
+    }
+
+    void stop(Duration timeout) throws InterruptedException {
+        running = false;
+        flusher.interrupt();
+        flusher.join(timeout.toMillis());
+    }
+
+    boolean offer(StoreEntry entry) {
+        return buffer.offer(entry);
+    }
+
+    void put(StoreEntry entry) throws InterruptedException {
+        buffer.put(entry);
+    }
+
+    boolean isDrained() {
+        return buffer.size() <= capacity / 2;
+    }
+
+    private void run() {
+        List<StoreEntry> batch = new ArrayList<>(batchSize);
+
+        while (running || !buffer.isEmpty()) {
+            try {
+                fill(batch);
+            } catch (InterruptedException e) {
+                // stop() interrupts to cut the wait short; drain what is left without waiting
+                buffer.drainTo(batch, batchSize - batch.size());
+            }
+
+            if (!batch.isEmpty()) {
+                flushTimer.record(() -> write(batch));
+                batch.clear();
+            }
+            afterFlush.run();
+        }
+    }
+
+    private void fill(List<StoreEntry> batch) throws InterruptedException {
+        StoreEntry first = buffer.poll(intervalNanos, TimeUnit.NANOSECONDS);
+        if (first == null) return;
+
+        batch.add(first);
+        long deadline = System.nanoTime() + intervalNanos;
+
+        while (batch.size() < batchSize) {
+            buffer.drainTo(batch, batchSize - batch.size());
+            if (batch.size() >= batchSize) return;
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) return;
+
+            StoreEntry next = buffer.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) return;
+            batch.add(next);
+        }
+    }
+
+    private void write(List<StoreEntry> batch) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                store(batch);
+                return;
+            } catch (Exception e) {
+                if (isPermanent(e)) {
+                    log.warn("Lane {} flush of {} metrics failed permanently, isolating failing metrics: {}",
+                            index, batch.size(), e.getMessage());
+                    split(batch);
+                    return;
+                }
+                if (durable && !running) {
+                    log.warn("Lane {} stopping with {} unstored metrics; they will be replayed: {}",
+                            index, batch.size(), e.getMessage());
+                    return;
+                }
+                if (!durable && attempt >= MAX_FLUSH_ATTEMPTS) {
+                    log.error("Lane {} dropping {} metrics after {} failed flush attempts: {}",
+                            index, batch.size(), attempt, e.getMessage(), e);
+                    return;
+                }
+                log.warn("Lane {} flush of {} metrics failed (attempt {}), retrying: {}",
+                        index, batch.size(), attempt, e.getMessage());
+                backOff(attempt);
+            }
+        }
+    }
+
+    /**
+     * Writes each half of a batch that failed permanently on its own; a single metric that
+     * still fails is dead-lettered. Halves that hit a transient error go through the
+     * regular retries.
+     */
+    private void split(List<StoreEntry> batch) {
+        if (batch.size() == 1) {
+            deadLetter(batch.get(0));
+            return;
+        }
+        int half = batch.size() / 2;
+        write(new ArrayList<>(batch.subList(0, half)));
+        write(new ArrayList<>(batch.subList(half, batch.size())));
+    }
+
+    private void deadLetter(StoreEntry entry) {
+        deadLettered.increment();
+        try {
+            deadLetter.accept(entry.metric);
+            log.error("Lane {} dead-lettered metric {} of series {} at {}", index,
+                    entry.metric.getMetricName(), entry.metric.getSeriesId(), entry.metric.getProcessedTimestamp());
+        } catch (Exception e) {
+            log.error("Lane {} could not dead-letter metric {} of series {} at {}, dropping it: {}", index,
+                    entry.metric.getMetricName(), entry.metric.getSeriesId(), entry.metric.getProcessedTimestamp(),
+                    e.getMessage(), e);
+        }
+        // Acknowledged either way: retrying it would only block the lane
+        entry.onStored.run();
+    }
+
+    private void store(List<StoreEntry> batch) {
+        List<ProcessedMetric> metrics = new ArrayList<>(batch.size());
+        for (StoreEntry entry : batch) {
+            metrics.add(entry.metric);
+        }
+        metricStoreRepository.batchInsert(metrics);
+        batch.forEach(entry -> entry.onStored.run());
+    }
+
+    /**
+     * Data access errors fail the same way on every attempt, except those Spring
+     * classifies as transient or recoverable and lost or unavailable connections. Anything
+     * else, such as a transaction that could not be started, is treated as transient.
+     */
+    static boolean isPermanent(Exception e) {
+        return e instanceof DataAccessException
+                && !(e instanceof TransientDataAccessException)
+                && !(e instanceof RecoverableDataAccessException)
+                && !(e instanceof DataAccessResourceFailureException);
+    }
+
+    private static void backOff(int attempt) {
+        long delay = Math.min(MAX_RETRY_BACKOFF_MS, RETRY_BACKOFF_MS << Math.min(attempt - 1, 16));
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException ie) {
+            // Shutting down; make the remaining attempts without backing off
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.metrics.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Size-bounded map, safe for concurrent use. Backed by Caffeine, so reads take no lock;
+ * eviction keeps the most frequently and recently used entries (W-TinyLFU) rather than
+ * strictly the least recently used ones.
+ */
+public class BoundedCache<K, V> {
+
+    private final Cache<K, V> cache;
+
+    public BoundedCache(int maxSize) {
+        // Eviction runs on the writing thread, so the bound holds once put returns
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .executor(Runnable::run)
+                .build();
+    }
+
+    public V get(K key) {
+        return cache.getIfPresent(key);
+    }
+
+    public boolean containsKey(K key) {
+        return cache.getIfPresent(key) != null;
+    }
+
+    public void put(K key, V value) {
+        cache.put(key, value);
+    }
+
+    public void remove(K key) {
+        cache.invalidate(key);
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    public int size() {
+        return (int) cache.estimatedSize();
+    }
+}
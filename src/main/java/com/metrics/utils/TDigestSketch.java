@@ -29,14 +29,19 @@ public class TDigestSketch implements QuantileSketch {
     }
 
     @Override
-    public byte[] serialize() {
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
-        digest.asSmallBytes(buffer);
+    public double getCdf(double x) {
+        return digest.cdf(x);
+    }
 
-        buffer.flip();
+    @Override
+    public long getCount() {
+        return digest.size();
+    }
 
-        byte[] bytes = new byte[buffer.remaining()];
-        buffer.get(bytes);
+    @Override
+    public byte[] serialize() {
+        byte[] bytes = new byte[digest.smallByteSize()];
+        digest.asSmallBytes(ByteBuffer.wrap(bytes));
         return bytes;
     }
 
@@ -7,13 +7,19 @@ import java.util.List;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.Month;
 import java.time.OffsetDateTime;
+import java.time.Year;
 import java.time.ZoneOffset;
 
 
 public class TimeUtils {
 
-    public static Duration chooseStep(Instant from, Instant to) {
+    /**
+     * @param hourlyStep whether ranges over 7 days use a 1-hour step instead of 5 minutes,
+     *                   see {@code query.hourlyStep.enabled}
+     */
+    public static Duration chooseStep(Instant from, Instant to, boolean hourlyStep) {
         Duration range = Duration.between(from, to);
 
         if (range.toHours() <= 1) {
@@ -22,8 +28,10 @@ public class TimeUtils {
             return Duration.ofSeconds(30);
         } else if (range.toHours() <= 24) {
             return Duration.ofMinutes(1);
-        } else {
+        } else if (range.toDays() <= 7 || !hourlyStep) {
             return Duration.ofMinutes(5);
+        } else {
+            return Duration.ofHours(1);
         }
     }
 
@@ -45,6 +53,69 @@ public class TimeUtils {
         return buckets;
     }
 
+    /**
+     * Allocation-light parser for the UTC form produced by {@link Instant#toString()},
+     * {@code yyyy-MM-ddTHH:mm:ss[.fraction]Z}. Anything else (offsets, other layouts)
+     * falls back to {@link Instant#parse}.
+     */
+    public static Instant parseIsoInstant(String text) {
+        int len = text.length();
+        if (len < 20 || text.charAt(len - 1) != 'Z'
+                || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != 'T'
+                || text.charAt(13) != ':' || text.charAt(16) != ':') {
+            return Instant.parse(text);
+        }
+
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 2);
+        int day = digits(text, 8, 2);
+        int hour = digits(text, 11, 2);
+        int minute = digits(text, 14, 2);
+        int second = digits(text, 17, 2);
+
+        int nanos = 0;
+        if (len > 20) {
+            if (text.charAt(19) != '.' || len - 21 > 9 || len == 21) {
+                return Instant.parse(text);
+            }
+            int fractionDigits = len - 21;
+            nanos = digits(text, 20, fractionDigits);
+            for (int i = fractionDigits; i < 9; i++) {
+                nanos *= 10;
+            }
+        }
+
+        if ((year | month | day | hour | minute | second | nanos) < 0
+                || month < 1 || month > 12 || day < 1 || day > 31
+                || hour > 23 || minute > 59 || second > 59
+                || (day > 28 && day > Month.of(month).length(Year.isLeap(year)))) {
+            return Instant.parse(text);
+        }
+
+        long epochSecond = epochDay(year, month, day) * 86_400L + hour * 3_600L + minute * 60L + second;
+        return Instant.ofEpochSecond(epochSecond, nanos);
+    }
+
+    private static int digits(String text, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            int d = text.charAt(i) - '0';
+            if (d < 0 || d > 9) return -1;
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    // Days since 1970-01-01 in the proleptic Gregorian calendar (Howard Hinnant's days_from_civil).
+    private static long epochDay(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yoe = y - era * 400;
+        long doy = (153L * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146_097 + doe - 719_468;
+    }
+
     public static Instant toInstant(Object dbValue) {
 
         if (dbValue instanceof Instant) return (Instant) dbValue;
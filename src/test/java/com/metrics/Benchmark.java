@@ -0,0 +1,83 @@
+package com.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+
+/**
+ * In-process measurement for the {@code benchmark}-tagged tests: runs an operation for a
+ * warmup period, then for a measured period on the calling thread, and reports units per
+ * second and bytes allocated per unit. Counts and sizes that are not rates go through
+ * {@link #report}, so all output has one format. Numbers are only comparable within one
+ * run on one machine. Run them with {@code ./gradlew benchmarkTest}; {@code -Dbenchmark.warmup} and
+ * {@code -Dbenchmark.duration} (seconds) change the periods.
+ */
+public final class Benchmark {
+
+    private static final Duration WARMUP = Duration.ofSeconds(Long.getLong("benchmark.warmup", 5));
+    private static final Duration DURATION = Duration.ofSeconds(Long.getLong("benchmark.duration", 10));
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Keeps results reachable, so the JIT cannot drop the measured work
+    private static volatile int sink;
+
+    @FunctionalInterface
+    public interface Operation {
+        Object run() throws Exception;
+    }
+
+    public record Result(String name, double unitsPerSecond, double bytesPerUnit) {
+
+        @Override
+        public String toString() {
+            return String.format("%-48s %,16.0f /s %,14.1f B/unit", name, unitsPerSecond, bytesPerUnit);
+        }
+    }
+
+    private Benchmark() {
+    }
+
+    public static Result measure(String name, Operation operation) throws Exception {
+        return measure(name, 1, operation);
+    }
+
+    /**
+     * Measures {@code operation}, which processes {@code unitsPerOperation} units (records,
+     * samples, rows) per call.
+     */
+    public static Result measure(String name, int unitsPerOperation, Operation operation) throws Exception {
+        loop(WARMUP, operation);
+
+        long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        long operations = loop(DURATION, operation);
+        long elapsed = System.nanoTime() - start;
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+        double units = (double) operations * unitsPerOperation;
+        Result result = new Result(name, units * 1e9 / elapsed, allocated / units);
+        System.out.println(result);
+        return result;
+    }
+
+    /**
+     * Reports a measured quantity that is not a rate, such as a record size or a count.
+     */
+    public static void report(String name, double value, String unit) {
+        System.out.println(String.format("%-48s %,16.0f %s", name, value, unit));
+    }
+
+    private static long loop(Duration duration, Operation operation) throws Exception {
+        long deadline = System.nanoTime() + duration.toNanos();
+        long operations = 0;
+        int hash = 0;
+        do {
+            Object result = operation.run();
+            hash += result == null ? 0 : result.hashCode();
+            operations++;
+        } while (System.nanoTime() < deadline);
+        sink = hash;
+        return operations;
+    }
+}
@@ -0,0 +1,91 @@
+package com.metrics;
+
+import com.metrics.models.common.Operation;
+import com.metrics.services.query.QuerySqlBuilder;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Tag("integration")
+class QueryPlanIT extends BaseMetricsIT {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private QuerySqlBuilder sqlBuilder;
+
+    private final Instant base = Instant.now();
+
+    @BeforeAll
+    void publishSamples() throws Exception {
+        publish("svc-plan", List.of(
+                Map.of("metricName","plan_metric","metricType","GAUGE","value",1,"timestamp",iso(base),"labels",Map.of("k","v"))
+        ));
+
+        Thread.sleep(3000);
+    }
+
+    @Test
+    void filteredSeriesLookupUsesLabelIndex() {
+        String plan = explain(sqlBuilder.series(true), "svc-plan:plan_metric", "{\"k\":\"v\"}");
+
+        assertTrue(plan.contains("idx_series_labels"), plan);
+    }
+
+    @Test
+    void unfilteredSeriesLookupUsesMetricNameIndex() {
+        String plan = explain(sqlBuilder.series(false), "svc-plan:plan_metric");
+
+        assertTrue(plan.contains("idx_series_metric_name"), plan);
+        assertFalse(plan.contains("idx_series_labels"), plan);
+    }
+
+    @Test
+    void sampleScanUsesSeriesTimeIndex() {
+        Long[] seriesIds = jdbcTemplate.queryForList(sqlBuilder.series(false), Long.class, "svc-plan:plan_metric")
+                .toArray(new Long[0]);
+        assertTrue(seriesIds.length > 0);
+
+        String plan = explain(sqlBuilder.samples(Operation.SUM, null, STEP), seriesIds,
+                Timestamp.from(base.minusSeconds(STEP)), Timestamp.from(base.plusSeconds(STEP)));
+
+        assertTrue(plan.contains("idx_series_id_ts"), plan);
+    }
+
+    // The test tables are tiny, so sequential scans are disabled to see which indexes a
+    // statement shape can use at all.
+    private String explain(String sql, Object... args) {
+        return jdbcTemplate.execute((ConnectionCallback<String>) connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SET enable_seqscan = off");
+            }
+            try (PreparedStatement explain = connection.prepareStatement("EXPLAIN (FORMAT JSON) " + sql)) {
+                for (int i = 0; i < args.length; i++) {
+                    explain.setObject(i + 1, args[i]);
+                }
+                try (ResultSet rs = explain.executeQuery()) {
+                    rs.next();
+                    return rs.getString(1);
+                }
+            } finally {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("RESET enable_seqscan");
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,80 @@
+package com.metrics.kafka;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.metrics.Benchmark;
+import com.metrics.models.check.ProcessedMetric;
+import com.metrics.models.common.MetricType;
+import com.metrics.utils.TDigestSketch;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Record size and encode/decode cost of {@code metrics-processed} records, JSON as
+ * {@link MessagePublisher} writes it versus {@link ProcessedMetricCodec}'s binary form,
+ * for sketches of a few and of many samples.
+ */
+@Tag("benchmark")
+class ProcessedMetricCodecBenchmark {
+
+    // Configured like Spring Boot's ObjectMapper, which the publisher uses for JSON
+    private final ObjectMapper objectMapper = JsonMapper.builder()
+            .findAndAddModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .build();
+    private final ProcessedMetricCodec codec = new ProcessedMetricCodec(objectMapper);
+
+    @ParameterizedTest
+    @ValueSource(ints = {10, 5_000})
+    void jsonVersusBinary(int samples) throws Exception {
+        ProcessedMetric metric = metric(samples);
+        byte[] json = objectMapper.writeValueAsBytes(metric);
+        byte[] binary = codec.encode(metric);
+        Benchmark.report("record size JSON, " + samples + " samples", json.length, "B");
+        Benchmark.report("record size binary, " + samples + " samples", binary.length, "B");
+
+        Benchmark.measure("encode JSON, " + samples + " samples", () -> objectMapper.writeValueAsBytes(metric));
+        Benchmark.measure("encode binary, " + samples + " samples", () -> codec.encode(metric));
+        Benchmark.measure("decode JSON, " + samples + " samples", () -> codec.decode(json));
+        Benchmark.measure("decode binary, " + samples + " samples", () -> codec.decode(binary));
+
+        assertTrue(binary.length < json.length);
+        for (ProcessedMetric decoded : new ProcessedMetric[] {codec.decode(json), codec.decode(binary)}) {
+            assertEquals(metric.getSeriesId(), decoded.getSeriesId());
+            assertEquals(metric.getProcessedTimestamp(), decoded.getProcessedTimestamp());
+            assertEquals(metric.getLabels(), decoded.getLabels());
+            assertArrayEquals(metric.getSketch(), decoded.getSketch());
+        }
+    }
+
+    private static ProcessedMetric metric(int samples) {
+        TDigestSketch sketch = TDigestSketch.create();
+        for (int i = 0; i < samples; i++) {
+            sketch.digest.add(1 + (i * 7919L) % 2_000);
+        }
+
+        ObjectNode labels = JsonNodeFactory.instance.objectNode();
+        labels.put("api", "/orders/{id}");
+        labels.put("method", "GET");
+        labels.put("region", "eu-west-1");
+        labels.put("status", "200");
+
+        return ProcessedMetric.builder()
+                .seriesId(-6_917_529_027_641_081_856L)
+                .metricName("svc-bench:latency_ms")
+                .metricType(MetricType.GAUGE)
+                .processedTimestamp(Instant.parse("2025-01-01T10:00:10Z"))
+                .value(1234.5)
+                .labels(labels)
+                .sketch(sketch.serialize())
+                .build();
+    }
+}
@@ -0,0 +1,121 @@
+package com.metrics.services.check;
+
+import com.metrics.config.AppConfigStore;
+import com.metrics.models.check.LabelSet;
+import com.metrics.models.check.RawMetric;
+import com.metrics.models.common.CardinalityFallbackPolicy;
+import com.metrics.models.common.CardinalityMode;
+import com.metrics.models.common.MetricType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Tag("integration")
+@Testcontainers
+class CardinalityGuardIT {
+
+    private static final String METRIC = "svc:guarded";
+    private static final int LIMIT = 100;
+
+    @Container
+    private static final GenericContainer<?> redis = new GenericContainer<>("redis:7.2").withExposedPorts(6379);
+
+    private final SeriesRegistry registry = new SeriesRegistry();
+    private LettuceConnectionFactory connectionFactory;
+    private StringRedisTemplate redisTemplate;
+
+    @BeforeEach
+    void connect() {
+        connectionFactory = new LettuceConnectionFactory(redis.getHost(), redis.getMappedPort(6379));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+        redisTemplate.execute((RedisCallback<Void>) connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        });
+    }
+
+    @AfterEach
+    void disconnect() {
+        connectionFactory.destroy();
+    }
+
+    @Test
+    void exactModeRejectsNewSeriesAtLimitAndKeepsAdmittedOnes() {
+        assertEquals(LIMIT, guard(CardinalityMode.EXACT).filterAllowed(series(0, LIMIT)).size());
+
+        // A fresh guard has an empty local cache, so every decision goes through Redis
+        assertEquals(0, guard(CardinalityMode.EXACT).filterAllowed(series(LIMIT, 2 * LIMIT)).size());
+        assertEquals(LIMIT, guard(CardinalityMode.EXACT).filterAllowed(series(0, LIMIT)).size());
+        assertEquals(LIMIT, redisTemplate.opsForSet().size("metric:sids:" + METRIC));
+    }
+
+    @Test
+    void approximateModeStopsCountingAtLimit() {
+        int admitted = guard(CardinalityMode.APPROXIMATE).filterAllowed(series(0, LIMIT)).size();
+        assertTrue(Math.abs(admitted - LIMIT) <= LIMIT / 20, "admitted " + admitted);
+        long counted = redisTemplate.opsForHyperLogLog().size("metric:{" + METRIC + "}:hll");
+
+        int leaked = 0;
+        for (int from = LIMIT; from < 50 * LIMIT; from += 500) {
+            leaked += guard(CardinalityMode.APPROXIMATE).filterAllowed(series(from, from + 500)).size();
+        }
+
+        // Rejected series must not be added to the HyperLogLog; if they were, its registers
+        // would fill and more and more unseen series would look already counted
+        assertEquals(counted, redisTemplate.opsForHyperLogLog().size("metric:{" + METRIC + "}:hll"));
+        assertTrue(leaked < 49 * LIMIT / 100, "leaked " + leaked);
+        assertFalse(redisTemplate.hasKey("metric:{" + METRIC + "}:hll-probe"));
+    }
+
+    @Test
+    void approximateModeStillAdmitsCountedSeriesAtLimit() {
+        List<RawMetric> first = series(0, LIMIT);
+        List<RawMetric> admitted = guard(CardinalityMode.APPROXIMATE).filterAllowed(first);
+
+        assertEquals(admitted.size(), guard(CardinalityMode.APPROXIMATE).filterAllowed(admitted).size());
+    }
+
+    private CardinalityGuard guard(CardinalityMode mode) {
+        AppConfigStore config = new AppConfigStore();
+        config.setCardinalityMode(mode);
+        config.setMetricSeriesLimit(LIMIT);
+        config.setLabelSizeLimit(50);
+        config.setCardinalityCacheSize(10_000);
+        config.setCardinalityBloomExpectedInsertions(10_000);
+        config.setCardinalityBloomFalsePositiveRate(0.001);
+        config.setCardinalityFallback(CardinalityFallbackPolicy.REJECT);
+        return new CardinalityGuard(redisTemplate, config, new SimpleMeterRegistry());
+    }
+
+    private List<RawMetric> series(int from, int to) {
+        List<RawMetric> raws = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            LabelSet labels = LabelSet.sorted(new String[] {"id"}, new String[] {String.valueOf(i)}, 1);
+            raws.add(RawMetric.builder()
+                    .metricName(METRIC)
+                    .metricType(MetricType.GAUGE)
+                    .value(1)
+                    .timestamp(Instant.EPOCH)
+                    .labelSet(labels)
+                    .seriesId(registry.seriesId(METRIC, labels))
+                    .build());
+        }
+        return raws;
+    }
+}
@@ -0,0 +1,91 @@
+package com.metrics.services.check;
+
+import com.metrics.config.AppConfigStore;
+import com.metrics.models.check.LabelSet;
+import com.metrics.models.check.RawMetric;
+import com.metrics.models.common.CardinalityFallbackPolicy;
+import com.metrics.models.common.CardinalityMode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.ClusterSlotHashUtil;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CardinalityGuardTest {
+
+    private final StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void approximateModeProbesEachMetricWithinItsOwnSlot() {
+        List<List<String>> calls = Collections.synchronizedList(new ArrayList<>());
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class))).thenAnswer(invocation -> {
+            calls.add(invocation.getArgument(1));
+            // One decision per (KEYS index, series ID) pair after the limit
+            int series = (invocation.getArguments().length - 3) / 2;
+            return Collections.nCopies(series, 1L);
+        });
+
+        CardinalityGuard guard = new CardinalityGuard(redisTemplate, config(), new SimpleMeterRegistry());
+        List<RawMetric> raws = List.of(raw("svc:req_total", 1), raw("svc:latency_ms", 2), raw("svc:req_total", 3));
+
+        assertEquals(3, guard.filterAllowed(raws).size());
+
+        assertEquals(List.of(
+                List.of("metric:{svc:req_total}:hll", "metric:{svc:req_total}:hll-probe"),
+                List.of("metric:{svc:latency_ms}:hll", "metric:{svc:latency_ms}:hll-probe")), calls);
+        for (List<String> keys : calls) {
+            assertEquals(ClusterSlotHashUtil.calculateSlot(keys.get(0)), ClusterSlotHashUtil.calculateSlot(keys.get(1)));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void failedMetricFallsBackWithoutAffectingOthers() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class))).thenAnswer(invocation -> {
+            List<String> keys = invocation.getArgument(1);
+            if (keys.get(0).contains("svc:latency_ms")) {
+                throw new IllegalStateException("CROSSSLOT");
+            }
+            return List.of(1L);
+        });
+
+        AppConfigStore config = config();
+        config.setCardinalityFallback(CardinalityFallbackPolicy.REJECT);
+        CardinalityGuard guard = new CardinalityGuard(redisTemplate, config, new SimpleMeterRegistry());
+
+        List<RawMetric> allowed = guard.filterAllowed(List.of(raw("svc:req_total", 1), raw("svc:latency_ms", 2)));
+
+        assertEquals(1, allowed.size());
+        assertEquals(1, allowed.get(0).getSeriesId());
+    }
+
+    private static AppConfigStore config() {
+        AppConfigStore config = new AppConfigStore();
+        config.setCardinalityMode(CardinalityMode.APPROXIMATE);
+        config.setCardinalityBloomExpectedInsertions(1_000);
+        config.setCardinalityBloomFalsePositiveRate(0.01);
+        config.setCardinalityFallback(CardinalityFallbackPolicy.ADMIT);
+        config.setLabelSizeLimit(10);
+        config.setMetricSeriesLimit(100);
+        return config;
+    }
+
+    private static RawMetric raw(String metricName, long seriesId) {
+        return RawMetric.builder()
+                .metricName(metricName)
+                .seriesId(seriesId)
+                .labelSet(LabelSet.EMPTY)
+                .build();
+    }
+}
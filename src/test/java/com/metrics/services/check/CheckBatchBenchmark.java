@@ -0,0 +1,107 @@
+package com.metrics.services.check;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.metrics.Benchmark;
+import com.metrics.kafka.ProcessedMetricCodec;
+import com.metrics.models.check.ProcessedMetric;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Check stage throughput, record at a time versus one {@link CheckService} pass per poll:
+ * extraction, aggregation and encoding of what would be published. The cardinality guard
+ * admits everything and Kafka is left out, so this measures the listener thread's own work.
+ */
+@Tag("benchmark")
+class CheckBatchBenchmark {
+
+    private static final int MESSAGES = 500;            // check.batch.maxPollRecords
+    private static final int METRICS_PER_MESSAGE = 50;
+    private static final Instant BASE = Instant.parse("2025-01-01T10:00:00Z");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final CardinalityGuard cardinalityGuard = mock(CardinalityGuard.class);
+    private final ProcessedMetricCodec codec = new ProcessedMetricCodec(objectMapper);
+    private CheckService checkService;
+
+    @BeforeEach
+    void setUp() {
+        when(cardinalityGuard.filterAllowed(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        checkService = new CheckService(
+                new RawMetricExtractor(new SeriesRegistry(), objectMapper),
+                cardinalityGuard,
+                new MetricAggregator(),
+                mock(MetricWindowStore.class));
+    }
+
+    @Test
+    void batchModeVersusRecordAtATime() throws Exception {
+        List<String> messages = messages();
+        List<byte[]> records = messages.stream().map(m -> m.getBytes(StandardCharsets.UTF_8)).toList();
+
+        int singlePublished = 0;
+        for (int i = 0; i < MESSAGES; i++) {
+            singlePublished += checkService.process(0, i, messages.get(i)).size();
+        }
+        int batchPublished = checkService.process(Map.of(0, records), Map.of(0, 0L)).size();
+        Benchmark.report("check single published per " + MESSAGES + " records", singlePublished, "metrics");
+        Benchmark.report("check batch published per " + MESSAGES + " records", batchPublished, "metrics");
+
+        Benchmark.Result single = Benchmark.measure("check single (records)", MESSAGES, () -> {
+            int bytes = 0;
+            for (int i = 0; i < MESSAGES; i++) {
+                bytes += encode(checkService.process(0, i, messages.get(i)));
+            }
+            return bytes;
+        });
+        Benchmark.Result batch = Benchmark.measure("check batch (records)", MESSAGES,
+                () -> encode(checkService.process(Map.of(0, records), Map.of(0, 0L))));
+
+        // One scrape per second, so a poll covers ten of them per series and window
+        assertEquals(MESSAGES * METRICS_PER_MESSAGE, singlePublished);
+        assertEquals(MESSAGES / 10 * METRICS_PER_MESSAGE, batchPublished);
+        assertTrue(single.unitsPerSecond() > 0 && batch.unitsPerSecond() > 0);
+    }
+
+    private int encode(List<ProcessedMetric> metrics) {
+        int bytes = 0;
+        for (ProcessedMetric metric : metrics) {
+            bytes += codec.encode(metric).length;
+        }
+        return bytes;
+    }
+
+    // Scrapes of one service, one second apart, half counters and half gauges
+    private List<String> messages() throws Exception {
+        List<String> messages = new ArrayList<>(MESSAGES);
+        for (int m = 0; m < MESSAGES; m++) {
+            List<Map<String, Object>> metrics = new ArrayList<>(METRICS_PER_MESSAGE);
+            for (int i = 0; i < METRICS_PER_MESSAGE; i++) {
+                boolean counter = i % 2 == 0;
+                metrics.add(Map.of(
+                        "metricName", counter ? "req_total" : "heap_used",
+                        "metricType", counter ? "COUNTER" : "GAUGE",
+                        "value", 1 + (m * 31 + i) % 97,
+                        "labels", Map.of("api", "/e" + i, "method", "GET"),
+                        "timestamp", BASE.plusSeconds(m).toString()));
+            }
+            messages.add(objectMapper.writeValueAsString(Map.of(
+                    "serviceId", "svc-bench",
+                    "fetchedAt", BASE.plusSeconds(m).toString(),
+                    "rawPayload", Map.of("metrics", metrics))));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,62 @@
+package com.metrics.services.check;
+
+import com.metrics.exceptions.MetricProcessException;
+import com.metrics.kafka.MessagePublisher;
+import com.metrics.models.check.ProcessedMetric;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CheckConsumerTest {
+
+    private final CheckService checkService = mock(CheckService.class);
+    private final MessagePublisher messagePublisher = mock(MessagePublisher.class);
+    private final CheckOffsetCommitter offsetCommitter = mock(CheckOffsetCommitter.class);
+    private final Consumer<?, ?> consumer = mock(Consumer.class);
+    private final CheckConsumer checkConsumer = new CheckConsumer(checkService, messagePublisher, offsetCommitter);
+
+    @BeforeEach
+    void setUp() throws Exception {
+        when(checkService.process(anyInt(), anyLong(), anyString())).thenReturn(List.of(new ProcessedMetric()));
+    }
+
+    @Test
+    void recordModeDoesNotWaitForTheBroker() {
+        // Never completes: the listener must return anyway
+        when(messagePublisher.publishAll(any(), any(), any())).thenReturn(new CompletableFuture<>());
+
+        checkConsumer.consume(record(7), consumer);
+
+        verify(offsetCommitter).consumed(0, 7);
+    }
+
+    @Test
+    void windowModeWaitsForTheBrokerBeforeCommitting() {
+        when(offsetCommitter.isEnabled()).thenReturn(true);
+        when(messagePublisher.publishAll(any(), any(), any()))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down")));
+
+        assertThrows(MetricProcessException.class, () -> checkConsumer.consume(record(7), consumer));
+        verify(offsetCommitter, never()).consumed(eq(0), anyLong());
+        verify(offsetCommitter, never()).commit(any());
+    }
+
+    private static ConsumerRecord<String, String> record(long offset) {
+        return new ConsumerRecord<>("metrics-raw", 0, offset, null, "{}");
+    }
+}
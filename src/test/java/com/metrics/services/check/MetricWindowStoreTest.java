@@ -0,0 +1,109 @@
+package com.metrics.services.check;
+
+import com.metrics.config.AppConfigStore;
+import com.metrics.models.check.LabelSet;
+import com.metrics.models.check.ProcessedMetric;
+import com.metrics.models.check.RawMetric;
+import com.metrics.models.common.MetricType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricWindowStoreTest {
+
+    private static final int PARTITION = 0;
+
+    private final Instant now = Instant.ofEpochSecond(Instant.now().getEpochSecond() / 10 * 10);
+    private final MetricWindowStore store = store();
+
+    @Test
+    void holdsBackOffsetsOfOpenWindows() {
+        assertTrue(store.accept(PARTITION, List.of(sample(now.minusSeconds(60))), 5).isEmpty());
+        assertEquals(5L, store.firstOpenOffset(PARTITION));
+
+        // Advances the watermark past the first window, which is emitted and released
+        List<ProcessedMetric> closed = store.accept(PARTITION, List.of(sample(now.minusSeconds(30))), 6);
+
+        assertEquals(1, closed.size());
+        assertEquals(now.minusSeconds(60), closed.get(0).getProcessedTimestamp());
+        assertEquals(6L, store.firstOpenOffset(PARTITION));
+    }
+
+    @Test
+    void farFutureSampleNeitherClosesWindowsNorStaysOpen() {
+        store.accept(PARTITION, List.of(sample(now.minusSeconds(30))), 5);
+
+        List<ProcessedMetric> closed = store.accept(PARTITION, List.of(sample(now.plus(Duration.ofDays(365)))), 6);
+
+        assertTrue(closed.isEmpty());
+        assertEquals(5L, store.firstOpenOffset(PARTITION));
+        assertEquals(1, store.closePartitions(List.of(PARTITION)).size());
+        assertNull(store.firstOpenOffset(PARTITION));
+    }
+
+    @Test
+    void idleWindowsKeepTheirOffsetUntilPublished() throws Exception {
+        store.accept(PARTITION, List.of(sample(now.minusSeconds(30))), 5);
+        Thread.sleep(5);
+
+        assertEquals(1, store.closeIdle().size());
+        assertEquals(5L, store.firstOpenOffset(PARTITION));
+
+        store.idlePublished();
+        assertNull(store.firstOpenOffset(PARTITION));
+    }
+
+    @Test
+    void failedIdlePublishIsRetriedOnTheNextSweep() throws Exception {
+        store.accept(PARTITION, List.of(sample(now.minusSeconds(30))), 5);
+        Thread.sleep(5);
+
+        // Publish fails: idlePublished() is not called
+        List<ProcessedMetric> first = store.closeIdle();
+        assertEquals(1, first.size());
+        assertEquals(5L, store.firstOpenOffset(PARTITION));
+
+        // The next sweep hands out the same window again, and nothing else
+        assertEquals(first, store.closeIdle());
+        assertEquals(5L, store.firstOpenOffset(PARTITION));
+
+        store.idlePublished();
+        assertNull(store.firstOpenOffset(PARTITION));
+        assertTrue(store.closeIdle().isEmpty());
+    }
+
+    @Test
+    void revocationPublishesIdleWindowsThatFailedToPublish() throws Exception {
+        store.accept(PARTITION, List.of(sample(now.minusSeconds(30))), 5);
+        Thread.sleep(5);
+        List<ProcessedMetric> unpublished = store.closeIdle();
+
+        assertEquals(unpublished, store.closePartitions(List.of(PARTITION)));
+        assertNull(store.firstOpenOffset(PARTITION));
+    }
+
+    private MetricWindowStore store() {
+        AppConfigStore config = new AppConfigStore();
+        config.setWindowEnabled(true);
+        config.setWindowAllowedLateness(Duration.ofSeconds(10));
+        config.setWindowIdleTimeout(Duration.ZERO);
+        config.setWindowMaxClockSkew(Duration.ofSeconds(60));
+        return new MetricWindowStore(new MetricAggregator(), config, new SimpleMeterRegistry());
+    }
+
+    private RawMetric sample(Instant timestamp) {
+        return RawMetric.builder()
+                .metricName("svc:windowed")
+                .metricType(MetricType.COUNTER)
+                .value(1)
+                .timestamp(timestamp)
+                .labelSet(LabelSet.EMPTY)
+                .seriesId(42)
+                .build();
+    }
+}
@@ -0,0 +1,53 @@
+package com.metrics.services.check;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.metrics.models.check.LabelSet;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SeriesRegistryTest {
+
+    private final SeriesRegistry registry = new SeriesRegistry();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void idIsStableAcrossInstancesAndLabelOrder() throws Exception {
+        LabelSet labels = registry.labels(objectMapper.readTree("{\"method\":\"GET\",\"api\":\"/a\"}"));
+        LabelSet reordered = new SeriesRegistry().labels(objectMapper.readTree("{\"api\":\"/a\",\"method\":\"GET\"}"));
+
+        // Pinned: IDs are persisted in Postgres and Redis, so the hash must not drift
+        assertEquals(8901465057744669962L, registry.seriesId("svc:req_total", labels));
+        assertEquals(registry.seriesId("svc:req_total", labels), new SeriesRegistry().seriesId("svc:req_total", reordered));
+    }
+
+    @Test
+    void separatorsInValuesDoNotCollide() throws Exception {
+        assertNotEquals(
+                id("m", "{\"a\":\"x|b=y\"}"),
+                id("m", "{\"a\":\"x\",\"b\":\"y\"}"));
+        assertNotEquals(
+                id("m|a=x", "{}"),
+                id("m", "{\"a\":\"x\"}"));
+        assertNotEquals(
+                id("m", "{\"ab\":\"c\"}"),
+                id("m", "{\"a\":\"bc\"}"));
+        assertNotEquals(
+                id("ma", "{\"b\":\"c\"}"),
+                id("m", "{\"ab\":\"c\"}"));
+    }
+
+    @Test
+    void labelSetsAndStringsAreInterned() throws Exception {
+        LabelSet first = registry.labels(objectMapper.readTree("{\"api\":\"/a\"}"));
+        LabelSet second = registry.labels(objectMapper.readTree("{\"api\":\"/a\"}"));
+
+        assertSame(first, second);
+        assertSame(first.key(0), second.key(0));
+        assertSame(LabelSet.EMPTY, registry.labels(objectMapper.readTree("{}")));
+    }
+
+    private long id(String metricName, String labelsJson) throws Exception {
+        return registry.seriesId(metricName, registry.labels(objectMapper.readTree(labelsJson)));
+    }
+}
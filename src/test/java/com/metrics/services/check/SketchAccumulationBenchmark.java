@@ -0,0 +1,95 @@
+package com.metrics.services.check;
+
+import com.metrics.Benchmark;
+import com.metrics.models.check.AggKey;
+import com.metrics.models.check.AggregationState;
+import com.metrics.models.check.LabelSet;
+import com.metrics.models.check.ProcessedMetric;
+import com.metrics.models.check.RawMetric;
+import com.metrics.models.common.MetricType;
+import com.metrics.utils.TDigestSketch;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Sketch accumulation for a payload with thousands of samples per series and window:
+ * live digests in {@link MetricAggregator}, serialized once on emit, against the former
+ * deserialize, add and serialize per sample.
+ */
+@Tag("benchmark")
+class SketchAccumulationBenchmark {
+
+    private static final int SERIES = 10;
+    private static final int SAMPLES_PER_SERIES = 5_000;
+    private static final Instant WINDOW = Instant.parse("2025-01-01T10:00:00Z");
+
+    private final MetricAggregator aggregator = new MetricAggregator();
+
+    @Test
+    void liveDigestsVersusPerSampleSerialization() throws Exception {
+        List<RawMetric> samples = samples();
+
+        Benchmark.Result live = Benchmark.measure("live digest (samples)", samples.size(), () -> {
+            Map<AggKey, AggregationState> state = new HashMap<>();
+            for (RawMetric raw : samples) {
+                aggregator.aggregate(state, raw);
+            }
+            return aggregator.emit(state.values());
+        });
+        Benchmark.Result perSample = Benchmark.measure("serialize per sample (samples)", samples.size(),
+                () -> serializePerSample(samples));
+
+        // Both paths see the same samples, so the emitted digests hold the same count
+        List<ProcessedMetric> emitted = emit(samples);
+        Map<Long, byte[]> baseline = serializePerSample(samples);
+        assertEquals(SERIES, emitted.size());
+        for (ProcessedMetric metric : emitted) {
+            assertEquals(TDigestSketch.deserialize(baseline.get(metric.getSeriesId())).getCount(),
+                    TDigestSketch.deserialize(metric.getSketch()).getCount());
+        }
+        assertTrue(live.bytesPerUnit() < perSample.bytesPerUnit());
+    }
+
+    private List<ProcessedMetric> emit(List<RawMetric> samples) {
+        Map<AggKey, AggregationState> state = new HashMap<>();
+        samples.forEach(raw -> aggregator.aggregate(state, raw));
+        return aggregator.emit(state.values());
+    }
+
+    // The former path: the state held serialized bytes, decoded and re-encoded per sample
+    private static Map<Long, byte[]> serializePerSample(List<RawMetric> samples) {
+        Map<Long, byte[]> sketches = new HashMap<>();
+        for (RawMetric raw : samples) {
+            TDigestSketch sketch = TDigestSketch.deserialize(sketches.get(raw.getSeriesId()));
+            sketch.digest.add(raw.getValue());
+            sketches.put(raw.getSeriesId(), sketch.serialize());
+        }
+        return sketches;
+    }
+
+    // Interleaved like a scrape payload, all in one 10-second window
+    private static List<RawMetric> samples() {
+        List<RawMetric> samples = new ArrayList<>(SERIES * SAMPLES_PER_SERIES);
+        for (int s = 0; s < SAMPLES_PER_SERIES; s++) {
+            for (int series = 0; series < SERIES; series++) {
+                samples.add(RawMetric.builder()
+                        .seriesId(series + 1)
+                        .metricName("svc-bench:latency_ms")
+                        .metricType(MetricType.GAUGE)
+                        .labelSet(LabelSet.EMPTY)
+                        .value(1 + (s * 7919L + series * 104_729L) % 2_000)
+                        .timestamp(WINDOW.plusMillis(s % 10_000))
+                        .build());
+            }
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,170 @@
+package com.metrics.services.query;
+
+import com.metrics.config.AppConfigStore;
+import com.metrics.exceptions.QueryBudgetExceededException;
+import com.metrics.exceptions.QueryRejectedException;
+import com.metrics.models.common.Operation;
+import com.metrics.models.common.RollupTier;
+import com.metrics.models.query.QueryRequest;
+import com.metrics.services.store.RollupCoverage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class QueryGovernorTest {
+
+    private static final Instant TO = Instant.parse("2024-01-31T00:00:00Z");
+
+    private final RollupCoverage rollupCoverage = mock(RollupCoverage.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void costFollowsTheTableThatWillBeRead() {
+        QueryGovernor governor = governor(config());
+        QueryRequest month = query(Operation.SUM, Duration.ofDays(30));
+
+        // Raw samples every 10s
+        assertEquals(259_201, governor.estimate(month));
+
+        when(rollupCoverage.tierFor(any(), anyLong())).thenReturn(RollupTier.ONE_HOUR);
+        assertEquals(721, governor.estimate(month));
+        assertEquals(7_210, governor.estimate(query(Operation.P95, Duration.ofDays(30))));
+    }
+
+    @Test
+    void hourlyStepForLongRangesIsOptIn() {
+        AppConfigStore config = config();
+        config.setQueryGovernorMaxPoints(1_000);
+        QueryGovernor governor = governor(config);
+        QueryRequest month = query(Operation.SUM, Duration.ofDays(30));
+
+        // 8,641 five-minute points by default
+        assertThrows(QueryBudgetExceededException.class, () -> governor.estimate(month));
+
+        // 721 hourly points
+        config.setQueryHourlyStepEnabled(true);
+        assertEquals(259_201, governor.estimate(month));
+    }
+
+    @Test
+    void rejectsQueriesOverBudget() {
+        AppConfigStore config = config();
+        config.setQueryGovernorMaxCost(100_000);
+        QueryGovernor governor = governor(config);
+
+        assertThrows(QueryBudgetExceededException.class, () -> governor.estimate(query(Operation.SUM, Duration.ofDays(30))));
+        assertEquals(1, meterRegistry.counter("metrics.query.governor.rejected", "reason", "cost").count());
+
+        config.setQueryGovernorMaxPoints(100);
+        assertThrows(QueryBudgetExceededException.class, () -> governor.estimate(query(Operation.SUM, Duration.ofHours(1))));
+        assertEquals(1, meterRegistry.counter("metrics.query.governor.rejected", "reason", "points").count());
+    }
+
+    @Test
+    void limitsConcurrentQueriesPerClient() throws Exception {
+        AppConfigStore config = config();
+        config.setQueryGovernorMaxConcurrentPerClient(1);
+        QueryGovernor governor = governor(config);
+
+        Future<String> running = hold(governor, "addr:10.0.0.1", 1);
+
+        assertThrows(QueryRejectedException.class, () -> governor.run("addr:10.0.0.1", 1, () -> "second"));
+        assertEquals("other", governor.run("addr:10.0.0.2", 1, () -> "other"));
+
+        release.countDown();
+        assertEquals("held", running.get());
+        assertEquals("again", governor.run("addr:10.0.0.1", 1, () -> "again"));
+    }
+
+    @Test
+    void batchHoldsOneSlotPerParallelScan() throws Exception {
+        AppConfigStore config = config();
+        config.setQueryGovernorMaxConcurrent(3);
+        config.setQueryGovernorMaxQueued(0);
+        QueryGovernor governor = governor(config);
+
+        Future<String> batch = hold(governor, "user:batch", 2);
+
+        assertEquals("fits", governor.run("user:a", 1, () -> "fits"));
+        hold(governor, "user:b", 1);
+        assertThrows(QueryRejectedException.class, () -> governor.run("user:c", 1, () -> "full"));
+        assertEquals(1, meterRegistry.counter("metrics.query.governor.rejected", "reason", "queue_full").count());
+
+        release.countDown();
+        assertEquals("held", batch.get());
+    }
+
+    @Test
+    void slotsAreCappedAtTheGlobalLimit() {
+        AppConfigStore config = config();
+        config.setQueryGovernorMaxConcurrent(2);
+        QueryGovernor governor = governor(config);
+
+        assertEquals("wide", governor.run("user:a", 1, 16, () -> "wide"));
+        assertEquals("next", governor.run("user:a", 1, 2, () -> "next"));
+    }
+
+    // Starts a query that holds its slots until the test releases it
+    private Future<String> hold(QueryGovernor governor, String client, int slots) throws InterruptedException {
+        CountDownLatch admitted = new CountDownLatch(1);
+        Future<String> future = executor.submit(() -> governor.run(client, 1, slots, () -> {
+            admitted.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "held";
+        }));
+        assertTrue(admitted.await(5, TimeUnit.SECONDS));
+        return future;
+    }
+
+    private QueryGovernor governor(AppConfigStore config) {
+        return new QueryGovernor(config, rollupCoverage, meterRegistry);
+    }
+
+    private static AppConfigStore config() {
+        AppConfigStore config = new AppConfigStore();
+        config.setQueryGovernorMaxCost(5_000_000);
+        config.setQueryGovernorMaxPoints(20_000);
+        config.setQueryGovernorSampleInterval(Duration.ofSeconds(10));
+        config.setQueryGovernorMaxConcurrent(6);
+        config.setQueryGovernorMaxConcurrentPerClient(3);
+        config.setQueryGovernorMaxQueued(32);
+        config.setQueryGovernorQueueTimeout(Duration.ofMillis(50));
+        config.setQueryGovernorStatementTimeout(Duration.ofSeconds(30));
+        return config;
+    }
+
+    private static QueryRequest query(Operation operation, Duration range) {
+        return QueryRequest.builder()
+                .metricName("svc:req_total")
+                .operation(operation)
+                .from(TO.minus(range))
+                .to(TO)
+                .build();
+    }
+}
@@ -0,0 +1,56 @@
+package com.metrics.services.query;
+
+import com.metrics.config.AppConfigStore;
+import com.metrics.exceptions.InvalidQueryException;
+import com.metrics.models.common.Operation;
+import com.metrics.models.query.QueryRequest;
+import com.metrics.services.store.RollupCoverage;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+class QueryProcessingServiceTest {
+
+    private static final Instant TO = Instant.parse("2025-01-01T10:00:00Z");
+
+    private final MetricQueryRepository repository = mock(MetricQueryRepository.class);
+    private final QueryResultCache cache = mock(QueryResultCache.class);
+    private final QueryProcessingService service = new QueryProcessingService(
+            repository, cache, mock(SketchMergeEngine.class), mock(RollupCoverage.class), new AppConfigStore());
+
+    @Test
+    void reversedRangeIsRejectedBeforeAnyWork() {
+        QueryRequest single = query(TO.plusSeconds(3600), TO, null);
+        QueryRequest grouped = query(TO.plusSeconds(3600), TO, List.of("api"));
+
+        assertThrows(InvalidQueryException.class, () -> service.execute(single));
+        assertThrows(InvalidQueryException.class, () -> service.execute(grouped));
+        verifyNoInteractions(repository, cache);
+    }
+
+    @Test
+    void missingRangeIsRejected() {
+        assertThrows(InvalidQueryException.class, () -> service.execute(query(null, TO, null)));
+        assertThrows(InvalidQueryException.class, () -> service.execute(query(TO, null, null)));
+    }
+
+    @Test
+    void emptyRangeReturnsOneBucket() {
+        assertEquals(1, service.execute(query(TO, TO, null)).getSeries().size());
+    }
+
+    private static QueryRequest query(Instant from, Instant to, List<String> groupBy) {
+        return QueryRequest.builder()
+                .metricName("svc:req_total")
+                .operation(Operation.SUM)
+                .groupBy(groupBy)
+                .from(from)
+                .to(to)
+                .build();
+    }
+}
@@ -0,0 +1,140 @@
+package com.metrics.services.query;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.metrics.config.AppConfigStore;
+import com.metrics.models.common.Operation;
+import com.metrics.models.query.BucketSeries;
+import com.metrics.models.query.QueryRequest;
+import com.metrics.services.store.RollupCoverage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class QueryResultCacheTest {
+
+    private static final long STEP = 10;
+
+    // A day in the past, so every bucket is older than immutableAfter
+    private final Instant to = Instant.ofEpochSecond((Instant.now().getEpochSecond() - 86_400) / STEP * STEP);
+
+    private final MetricQueryRepository repository = mock(MetricQueryRepository.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<long[]> reads = new ArrayList<>();
+    private double offset;
+
+    private QueryResultCache cache;
+    private QueryProcessingService service;
+
+    @BeforeEach
+    void setUp() {
+        AppConfigStore config = new AppConfigStore();
+        config.setQueryCacheEnabled(true);
+        config.setQueryCacheMaxEntries(100);
+        config.setQueryCacheImmutableAfter(Duration.ofMinutes(2));
+        config.setQueryCacheRedisEnabled(false);
+
+        cache = new QueryResultCache(null, new ObjectMapper(), config, meterRegistry);
+        service = new QueryProcessingService(repository, cache, mock(SketchMergeEngine.class), mock(RollupCoverage.class), config);
+
+        when(repository.resolveSeries(anyString(), any())).thenReturn(List.of(1L));
+        when(repository.build(any(), any(), anyLong())).thenReturn("sql");
+        when(repository.args(any(), any(), any())).thenCallRealMethod();
+        // Each bucket reads as its own timestamp plus an offset the test can change
+        doAnswer(invocation -> {
+            Object[] args = invocation.getArgument(1);
+            BucketSeries series = invocation.getArgument(2);
+            long from = ((Timestamp) args[1]).toInstant().getEpochSecond();
+            long end = ((Timestamp) args[2]).toInstant().getEpochSecond();
+            reads.add(new long[] {from, end});
+            for (long bucket = from; bucket < end; bucket += STEP) {
+                series.set(bucket, bucket + offset);
+            }
+            return null;
+        }).when(repository).queryInto(anyString(), any(), any());
+    }
+
+    @Test
+    void repeatedQueryIsServedFromCache() {
+        BucketSeries first = series(query(to.minusSeconds(600), to));
+        BucketSeries second = series(query(to.minusSeconds(600), to));
+
+        assertEquals(1, reads.size());
+        assertArrayEquals(first.getValues(), second.getValues());
+        assertEquals(1, meterRegistry.counter("metrics.query.cache", "result", "hit").count());
+    }
+
+    @Test
+    void slidingQueryOnlyReadsNewBucketsAndStitchesThem() {
+        series(query(to.minusSeconds(600), to));
+        BucketSeries slid = series(query(to.minusSeconds(570), to.plusSeconds(30)));
+
+        assertEquals(2, reads.size());
+        assertArrayEquals(new long[] {to.getEpochSecond() + STEP, to.getEpochSecond() + 4 * STEP}, reads.get(1));
+        for (int i = 0; i < slid.size(); i++) {
+            assertEquals(slid.timestampAt(i), slid.getValues()[i]);
+        }
+        assertEquals(1, meterRegistry.counter("metrics.query.cache", "result", "partial").count());
+    }
+
+    @Test
+    void invalidationDropsCachedBuckets() {
+        series(query(to.minusSeconds(600), to));
+
+        offset = 1;
+        cache.invalidate("svc:req_total");
+        BucketSeries reloaded = series(query(to.minusSeconds(600), to));
+
+        assertEquals(2, reads.size());
+        assertArrayEquals(new long[] {to.getEpochSecond() - 600, to.getEpochSecond() + STEP}, reads.get(1));
+        assertEquals(reloaded.getFrom() + 1, reloaded.getValues()[0]);
+    }
+
+    @Test
+    void invalidationOfAnotherMetricKeepsEntries() {
+        series(query(to.minusSeconds(600), to));
+        cache.invalidate("svc:other");
+        series(query(to.minusSeconds(600), to));
+
+        assertEquals(1, reads.size());
+    }
+
+    @Test
+    void recentBucketsAreNotCached() {
+        Instant now = Instant.now();
+        series(query(now.minusSeconds(600), now));
+        series(query(now.minusSeconds(600), now));
+
+        // The second read starts at the first bucket that was still mutable
+        assertEquals(2, reads.size());
+        long horizon = (now.minus(Duration.ofMinutes(2)).getEpochSecond()) / STEP * STEP;
+        assertTrue(reads.get(1)[0] >= horizon - STEP);
+        assertTrue(reads.get(1)[0] > reads.get(0)[0]);
+    }
+
+    private BucketSeries series(QueryRequest request) {
+        return service.execute(request).getSeries();
+    }
+
+    private static QueryRequest query(Instant from, Instant to) {
+        return QueryRequest.builder()
+                .metricName("svc:req_total")
+                .operation(Operation.SUM)
+                .from(from)
+                .to(to)
+                .build();
+    }
+}
@@ -0,0 +1,105 @@
+package com.metrics.services.query;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.metrics.Benchmark;
+import com.metrics.models.query.BucketSeries;
+import com.metrics.models.query.QueryResponse;
+import com.metrics.utils.TimeUtils;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Result building and JSON serialization for a 4-week query at a 5-minute step: rows
+ * written into a {@link BucketSeries}, against the former row maps, {@code Map<Instant,
+ * Double>} and gap-filled point list. Rows are generated in memory, so the database is
+ * left out; one in ten buckets has no data.
+ */
+@Tag("benchmark")
+class QueryResultLayoutBenchmark {
+
+    private static final Duration STEP = Duration.ofMinutes(5);
+    private static final long FROM = Instant.parse("2025-01-01T00:00:00Z").getEpochSecond();
+    private static final long TO = FROM + Duration.ofDays(28).getSeconds();
+
+    private final ObjectMapper objectMapper = JsonMapper.builder()
+            .findAndAddModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .build();
+
+    record Point(Instant ts, double value) {
+    }
+
+    @Test
+    void bucketArraysVersusPointList() throws Exception {
+        long step = STEP.getSeconds();
+        int buckets = (int) ((TO - FROM) / step) + 1;
+        long[] rowBuckets = new long[buckets];
+        double[] rowValues = new double[buckets];
+        int rows = 0;
+        for (int i = 0; i < buckets; i++) {
+            if (i % 10 == 3) continue;
+            rowBuckets[rows] = FROM + i * step;
+            rowValues[rows] = 1 + (i * 7919L) % 2_000;
+            rows++;
+        }
+        int rowCount = rows;
+
+        Benchmark.Result arrays = Benchmark.measure("bucket arrays (buckets)", buckets, () -> {
+            BucketSeries series = new BucketSeries(FROM, TO, step);
+            for (int i = 0; i < rowCount; i++) {
+                series.set(rowBuckets[i], rowValues[i]);
+            }
+            return objectMapper.writeValueAsBytes(new QueryResponse(series));
+        });
+        Benchmark.Result points = Benchmark.measure("row maps and point list (buckets)", buckets,
+                () -> objectMapper.writeValueAsBytes(Map.of("series", pointList(rowBuckets, rowValues, rowCount))));
+
+        // Same JSON either way
+        BucketSeries series = new BucketSeries(FROM, TO, step);
+        for (int i = 0; i < rowCount; i++) {
+            series.set(rowBuckets[i], rowValues[i]);
+        }
+        assertEquals(objectMapper.writeValueAsString(Map.of("series", pointList(rowBuckets, rowValues, rowCount))),
+                objectMapper.writeValueAsString(new QueryResponse(series)));
+        assertTrue(arrays.bytesPerUnit() < points.bytesPerUnit());
+    }
+
+    // The former path: a map per row as queryForList returned it, then an Instant-keyed
+    // map, then a point per bucket with gaps filled by walking the range
+    private static List<Point> pointList(long[] rowBuckets, double[] rowValues, int rowCount) {
+        List<Map<String, Object>> rows = new ArrayList<>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("bucket_ts", Timestamp.from(Instant.ofEpochSecond(rowBuckets[i])));
+            row.put("value", rowValues[i]);
+            rows.add(row);
+        }
+
+        Map<Instant, Double> bucketToValue = new HashMap<>();
+        for (Map<String, Object> row : rows) {
+            Number value = (Number) row.get("value");
+            if (value == null) continue;
+            bucketToValue.put(TimeUtils.toInstant(row.get("bucket_ts")), value.doubleValue());
+        }
+
+        List<Point> points = new ArrayList<>();
+        Instant to = Instant.ofEpochSecond(TO);
+        for (Instant current = Instant.ofEpochSecond(FROM); !current.isAfter(to); current = current.plus(STEP)) {
+            points.add(new Point(current, bucketToValue.getOrDefault(current, 0.0)));
+        }
+        return points;
+    }
+}
@@ -0,0 +1,251 @@
+package com.metrics.services.query;
+
+import com.metrics.config.AppConfigStore;
+import com.metrics.exceptions.InvalidQueryException;
+import com.metrics.exceptions.QueryGroupLimitException;
+import com.metrics.models.common.Operation;
+import com.metrics.models.query.BucketSeries;
+import com.metrics.models.query.LabeledSeries;
+import com.metrics.models.query.QueryRequest;
+import com.metrics.utils.TDigestSketch;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SharedScanTest {
+
+    private static final String METRIC = "svc:req_total";
+    private static final long FROM = 1_700_000_000L / 60 * 60;
+    private static final long STEP = 60;
+    private static final long TO = FROM + 2 * STEP;
+
+    private final MetricQueryRepository repository = mock(MetricQueryRepository.class);
+    private final List<Object[]> rows = new ArrayList<>();
+    private final List<Long> scannedSeries = new ArrayList<>();
+    private SketchMergeEngine sketchMergeEngine;
+
+    @BeforeEach
+    void setUp() {
+        AppConfigStore config = new AppConfigStore();
+        config.setQueryMergeParallelism(2);
+        sketchMergeEngine = new SketchMergeEngine(config);
+
+        when(repository.buildScan(anyBoolean(), any(), anyLong())).thenReturn("scan");
+        when(repository.args(any(), any(), any())).thenCallRealMethod();
+        doAnswer(invocation -> {
+            Object[] args = invocation.getArgument(1);
+            scannedSeries.addAll(List.of((Long[]) args[0]));
+            MetricQueryRepository.ScanSink sink = invocation.getArgument(3);
+            for (Object[] row : rows) {
+                sink.accept((long) row[0], (long) row[1], (double) row[2], (long) row[3], (byte[]) row[4]);
+            }
+            return null;
+        }).when(repository).scan(anyString(), any(), anyBoolean(), any());
+    }
+
+    @AfterEach
+    void tearDown() {
+        sketchMergeEngine.shutdown();
+    }
+
+    @Test
+    void queriesOnOneMetricShareASingleScan() {
+        when(repository.resolveSeries(METRIC, Map.of())).thenReturn(List.of(1L, 2L));
+        when(repository.resolveSeries(METRIC, Map.of("api", "/a"))).thenReturn(List.of(1L));
+        row(FROM, 1, 10, 2);
+        row(FROM, 2, 30, 1);
+        row(FROM + STEP, 1, 4, 4);
+
+        SharedScan scan = scan(1000);
+        SharedScan.Result all = scan.add(query(Operation.SUM, Map.of(), null));
+        SharedScan.Result filtered = scan.add(query(Operation.AVG, Map.of("api", "/a"), null));
+        SharedScan.Result rate = scan.add(query(Operation.RATE, Map.of(), null));
+
+        assertTrue(scan.run());
+        verify(repository, times(1)).scan(anyString(), any(), eq(false), any());
+        assertEquals(2, scannedSeries.size());
+
+        assertArrayEquals(new double[] {40, 4, 0}, series(all).getValues());
+        assertArrayEquals(new double[] {5, 1, 0}, series(filtered).getValues());
+        assertArrayEquals(new double[] {40.0 / STEP, 4.0 / STEP, 0}, series(rate).getValues());
+    }
+
+    @Test
+    void groupsSeriesByLabelValuesInStableOrder() {
+        when(repository.resolveSeriesLabels(METRIC, Map.of())).thenReturn(Map.of(
+                1L, Map.of("api", "/b"),
+                2L, Map.of("api", "/a"),
+                3L, Map.of("api", "/b", "method", "GET"),
+                4L, Map.of()));
+        row(FROM, 1, 1, 1);
+        row(FROM, 2, 2, 1);
+        row(FROM, 3, 3, 1);
+        row(FROM, 4, 4, 1);
+
+        SharedScan scan = scan(10);
+        SharedScan.Result result = scan.add(query(Operation.SUM, Map.of(), List.of("api")));
+        scan.run();
+
+        List<LabeledSeries> groups = result.response().getGroups();
+        assertEquals(3, groups.size());
+        // Series without the label form their own group, first, without the label
+        assertEquals(Map.of(), groups.get(0).getLabels());
+        assertEquals(4, groups.get(0).getSeries().get(FROM));
+        assertEquals(Map.of("api", "/a"), groups.get(1).getLabels());
+        assertEquals(2, groups.get(1).getSeries().get(FROM));
+        assertEquals(Map.of("api", "/b"), groups.get(2).getLabels());
+        assertEquals(4, groups.get(2).getSeries().get(FROM));
+    }
+
+    @Test
+    void groupLimitIsEnforcedBeforeScanning() {
+        when(repository.resolveSeriesLabels(METRIC, Map.of())).thenReturn(Map.of(
+                1L, Map.of("api", "/a"),
+                2L, Map.of("api", "/b"),
+                3L, Map.of("api", "/c")));
+
+        SharedScan scan = scan(2);
+        assertThrows(QueryGroupLimitException.class, () -> scan.add(query(Operation.SUM, Map.of(), List.of("api"))));
+
+        assertFalse(scan.run());
+        verify(repository, never()).scan(anyString(), any(), anyBoolean(), any());
+    }
+
+    @Test
+    void scanIsSkippedWhenNoSeriesMatch() {
+        when(repository.resolveSeries(METRIC, Map.of())).thenReturn(List.of());
+
+        SharedScan scan = scan(10);
+        SharedScan.Result result = scan.add(query(Operation.SUM, Map.of(), null));
+
+        assertFalse(scan.run());
+        verify(repository, never()).scan(anyString(), any(), anyBoolean(), any());
+        assertArrayEquals(new double[3], series(result).getValues());
+    }
+
+    @Test
+    void invalidQuantilesAreRejected() {
+        SharedScan scan = scan(10);
+        QueryRequest query = query(Operation.QUANTILES, Map.of(), null);
+
+        query.setQuantiles(List.of());
+        assertThrows(InvalidQueryException.class, () -> scan.add(query));
+        query.setQuantiles(List.of(0.5, 1.5));
+        assertThrows(InvalidQueryException.class, () -> scan.add(query));
+    }
+
+    @Test
+    void histogramCountsSamplesPerBucketBound() {
+        when(repository.resolveSeries(METRIC, Map.of())).thenReturn(List.of(1L, 2L));
+        sketchRow(FROM, 1, 0, 10);      // 0 .. 9
+        sketchRow(FROM, 2, 1000, 10);   // 1000 .. 1009
+        sketchRow(FROM, 2, 5000, 5);    // 5000 .. 5004
+        sketchRow(FROM + STEP, 1, 1000, 4);
+
+        SharedScan scan = scan(10);
+        QueryRequest query = query(Operation.HISTOGRAM, Map.of(), null);
+        query.setBuckets(List.of(100.0, 2000.0));
+        SharedScan.Result result = scan.add(query);
+        scan.run();
+
+        verify(repository).scan(anyString(), any(), eq(true), any());
+        List<LabeledSeries> outputs = result.response().getGroups();
+        assertEquals(List.of(Map.of("le", "100.0"), Map.of("le", "2000.0"), Map.of("le", "+Inf")),
+                outputs.stream().map(LabeledSeries::getLabels).toList());
+
+        // t-digest counts are estimates near the bounds, but always add up to the total
+        assertEquals(10, outputs.get(0).getSeries().get(FROM), 1.0);
+        assertEquals(10, outputs.get(1).getSeries().get(FROM), 1.0);
+        assertEquals(5, outputs.get(2).getSeries().get(FROM), 1.0);
+        assertEquals(25, outputs.stream().mapToDouble(o -> o.getSeries().get(FROM)).sum(), 1e-9);
+
+        assertEquals(0, outputs.get(0).getSeries().get(FROM + STEP), 1.0);
+        assertEquals(4, outputs.stream().mapToDouble(o -> o.getSeries().get(FROM + STEP)).sum(), 1e-9);
+
+        // No sketches in the last bucket: every count stays 0
+        outputs.forEach(o -> assertEquals(0, o.getSeries().get(TO)));
+    }
+
+    @Test
+    void groupedHistogramHasOneSeriesPerGroupAndBound() {
+        when(repository.resolveSeriesLabels(METRIC, Map.of())).thenReturn(Map.of(
+                1L, Map.of("api", "/a"),
+                2L, Map.of("api", "/b")));
+        sketchRow(FROM, 1, 0, 3);
+        sketchRow(FROM, 2, 500, 7);
+
+        SharedScan scan = scan(10);
+        QueryRequest query = query(Operation.HISTOGRAM, Map.of(), List.of("api"));
+        query.setBuckets(List.of(100.0));
+        SharedScan.Result result = scan.add(query);
+        scan.run();
+
+        List<LabeledSeries> outputs = result.response().getGroups();
+        assertEquals(List.of(
+                Map.of("api", "/a", "le", "100.0"), Map.of("api", "/a", "le", "+Inf"),
+                Map.of("api", "/b", "le", "100.0"), Map.of("api", "/b", "le", "+Inf")),
+                outputs.stream().map(LabeledSeries::getLabels).toList());
+        assertEquals(3, outputs.get(0).getSeries().get(FROM));
+        assertEquals(0, outputs.get(1).getSeries().get(FROM));
+        assertEquals(0, outputs.get(2).getSeries().get(FROM));
+        assertEquals(7, outputs.get(3).getSeries().get(FROM));
+    }
+
+    @Test
+    void histogramBoundsMustIncrease() {
+        SharedScan scan = scan(10);
+        QueryRequest query = query(Operation.HISTOGRAM, Map.of(), null);
+
+        query.setBuckets(List.of(10.0, 10.0));
+        assertThrows(InvalidQueryException.class, () -> scan.add(query));
+    }
+
+    private void row(long bucket, long seriesId, double valueSum, long valueCount) {
+        rows.add(new Object[] {bucket, seriesId, valueSum, valueCount, null});
+    }
+
+    private void sketchRow(long bucket, long seriesId, double start, int values) {
+        TDigestSketch sketch = TDigestSketch.create();
+        for (int i = 0; i < values; i++) {
+            sketch.digest.add(start + i);
+        }
+        rows.add(new Object[] {bucket, seriesId, 0.0, 0L, sketch.serialize()});
+    }
+
+    private SharedScan scan(int maxGroups) {
+        return new SharedScan(repository, sketchMergeEngine, METRIC, FROM, TO, STEP, null, maxGroups);
+    }
+
+    private static BucketSeries series(SharedScan.Result result) {
+        return result.response().getSeries();
+    }
+
+    private static QueryRequest query(Operation operation, Map<String, String> labels, List<String> groupBy) {
+        return QueryRequest.builder()
+                .metricName(METRIC)
+                .operation(operation)
+                .labels(labels)
+                .groupBy(groupBy)
+                .from(Instant.ofEpochSecond(FROM))
+                .to(Instant.ofEpochSecond(TO))
+                .build();
+    }
+}
@@ -0,0 +1,114 @@
+package com.metrics.services.query;
+
+import com.metrics.config.AppConfigStore;
+import com.metrics.models.query.BucketSeries;
+import com.metrics.utils.TDigestSketch;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SketchMergeEngineTest {
+
+    private static final long STEP = 60;
+
+    private final SketchMergeEngine engine = engine(4);
+
+    @AfterEach
+    void tearDown() {
+        engine.shutdown();
+    }
+
+    @Test
+    void everyBucketIsReadOnceWithAllOfItsSketches() {
+        Map<Long, Long> counts = new ConcurrentHashMap<>();
+        AtomicInteger reads = new AtomicInteger();
+        SketchMergeEngine.Merge merge = engine.start((bucket, merged) -> {
+            reads.incrementAndGet();
+            counts.merge(bucket, merged.getCount(), Long::sum);
+        });
+
+        // Bucket sizes around the chunk size, so buckets span several chunks
+        int[] sketchesPerBucket = {1, 63, 64, 65, 200, 7};
+        for (int b = 0; b < sketchesPerBucket.length; b++) {
+            for (int s = 0; s < sketchesPerBucket[b]; s++) {
+                merge.accept(b * STEP, sketch(b * 1000.0, 10));
+            }
+        }
+        merge.finish();
+
+        assertEquals(sketchesPerBucket.length, reads.get());
+        for (int b = 0; b < sketchesPerBucket.length; b++) {
+            assertEquals(sketchesPerBucket[b] * 10L, counts.get(b * STEP));
+        }
+    }
+
+    @Test
+    void quantilesLandInTheirOwnBuckets() {
+        BucketSeries target = new BucketSeries(0, 9 * STEP, STEP);
+        SketchMergeEngine.Merge merge = engine.start(0.5, target);
+
+        for (int b = 0; b < 10; b++) {
+            for (int s = 0; s < 100; s++) {
+                merge.accept(b * STEP, sketch(b * 1000.0, 10));
+            }
+        }
+        merge.finish();
+
+        for (int b = 0; b < 10; b++) {
+            // Every sketch holds b*1000 .. b*1000+9
+            assertEquals(b * 1000.0 + 4.5, target.get(b * STEP), 1.0);
+        }
+    }
+
+    @Test
+    void emptySketchesAndEmptyBucketsAreSkipped() {
+        Map<Long, Long> counts = new ConcurrentHashMap<>();
+        SketchMergeEngine.Merge merge = engine.start((bucket, merged) -> counts.put(bucket, merged.getCount()));
+
+        merge.accept(0, null);
+        merge.accept(STEP, new byte[0]);
+        merge.accept(STEP, sketch(0, 3));
+        merge.accept(2 * STEP, null);
+        merge.finish();
+
+        assertEquals(Map.of(STEP, 3L), counts);
+    }
+
+    @Test
+    void boundedPendingChunksStillCompleteOnASingleThread() {
+        SketchMergeEngine single = engine(1);
+        try {
+            Map<Long, Long> counts = new ConcurrentHashMap<>();
+            SketchMergeEngine.Merge merge = single.start((bucket, merged) -> counts.put(bucket, merged.getCount()));
+
+            // Far more chunks than may be pending at once
+            for (int s = 0; s < 64 * 40; s++) {
+                merge.accept(0, sketch(s, 1));
+            }
+            merge.finish();
+
+            assertEquals(64L * 40, counts.get(0L));
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    private static byte[] sketch(double start, int values) {
+        TDigestSketch sketch = TDigestSketch.create();
+        for (int i = 0; i < values; i++) {
+            sketch.digest.add(start + i);
+        }
+        return sketch.serialize();
+    }
+
+    private static SketchMergeEngine engine(int parallelism) {
+        AppConfigStore config = new AppConfigStore();
+        config.setQueryMergeParallelism(parallelism);
+        return new SketchMergeEngine(config);
+    }
+}
@@ -0,0 +1,138 @@
+package com.metrics.services.store;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.metrics.config.AppConfigStore;
+import com.metrics.models.check.ProcessedMetric;
+import com.metrics.models.common.MetricType;
+import com.metrics.models.common.StoreWriteMode;
+import com.metrics.services.check.SeriesRegistry;
+import com.metrics.services.query.QueryResultCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class MetricStoreRepositoryTest {
+
+    private static final Instant WINDOW = Instant.parse("2025-01-01T10:00:00Z");
+
+    @Test
+    void lastSampleOfAWindowWins() {
+        Map<SeriesBucket, ProcessedMetric> rows = MetricStoreRepository.latestPerWindow(List.of(
+                counter(1, WINDOW, 2.0),
+                counter(2, WINDOW, 5.0),
+                counter(1, WINDOW, 3.0),
+                counter(1, WINDOW.plusSeconds(10), 7.0)));
+
+        assertEquals(3, rows.size());
+        assertEquals(3.0, rows.get(new SeriesBucket(1, WINDOW.getEpochSecond())).getValue());
+        assertEquals(5.0, rows.get(new SeriesBucket(2, WINDOW.getEpochSecond())).getValue());
+        assertEquals(7.0, rows.get(new SeriesBucket(1, WINDOW.plusSeconds(10).getEpochSecond())).getValue());
+    }
+
+    @Test
+    void newRowAddsItsValueCountAndSketch() {
+        ProcessedMetric metric = counter(1, WINDOW, 4.0);
+        metric.setSketch(new byte[] {1, 2, 3});
+
+        RollupWriter.Change change = single(MetricStoreRepository.changes(rows(metric), Map.of()));
+
+        assertEquals(4.0, change.sum);
+        assertEquals(1, change.count);
+        assertArrayEquals(new byte[] {1, 2, 3}, change.sketch);
+    }
+
+    @Test
+    void redeliveredRowChangesNothing() {
+        ProcessedMetric metric = counter(1, WINDOW, 4.0);
+        metric.setSketch(new byte[] {1, 2, 3});
+        Map<SeriesBucket, Double> stored = Map.of(new SeriesBucket(1, WINDOW.getEpochSecond()), 4.0);
+
+        RollupWriter.Change change = single(MetricStoreRepository.changes(rows(metric), stored));
+
+        assertEquals(0.0, change.sum);
+        assertEquals(0, change.count);
+        // The sketch went into the tiers with the first write
+        assertNull(change.sketch);
+    }
+
+    @Test
+    void replacedRowMovesTheSumByTheDifference() {
+        Map<SeriesBucket, Double> stored = Map.of(new SeriesBucket(1, WINDOW.getEpochSecond()), 4.0);
+        RollupWriter.Change change = single(MetricStoreRepository.changes(rows(counter(1, WINDOW, 6.5)), stored));
+        assertEquals(2.5, change.sum);
+        assertEquals(0, change.count);
+
+        Map<SeriesBucket, Double> storedWithoutValue = new HashMap<>();
+        storedWithoutValue.put(new SeriesBucket(1, WINDOW.getEpochSecond()), null);
+        RollupWriter.Change valueAppears = single(MetricStoreRepository.changes(rows(counter(1, WINDOW, 1.0)), storedWithoutValue));
+        assertEquals(1.0, valueAppears.sum);
+        assertEquals(1, valueAppears.count);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void upsertWithoutRollupsDoesNotReadStoredRows() {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        AppConfigStore config = new AppConfigStore();
+        config.setStoreWriteMode(StoreWriteMode.UPSERT);
+        config.setStoreSeriesCacheSize(100);
+        config.setRollupEnabled(false);
+        config.setQueryCacheEnabled(false);
+        config.setQueryCacheMaxEntries(1);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+        MetricStoreRepository repository = new MetricStoreRepository(
+                jdbcTemplate,
+                new SeriesRegistry(),
+                new RollupWriter(jdbcTemplate, config),
+                new QueryResultCache(null, new ObjectMapper(), config, meterRegistry),
+                mock(PlatformTransactionManager.class),
+                config,
+                meterRegistry);
+
+        repository.batchInsert(List.of(counter(1, WINDOW, 2.0), counter(1, WINDOW, 3.0)));
+
+        verify(jdbcTemplate, never()).query(anyString(), any(RowCallbackHandler.class), any(Object[].class));
+        verify(jdbcTemplate).batchUpdate(contains("ON CONFLICT (series_id, ts) DO UPDATE"),
+                (List<ProcessedMetric>) argThat(rows -> ((List<ProcessedMetric>) rows).size() == 1
+                        && ((List<ProcessedMetric>) rows).get(0).getValue() == 3.0),
+                eq(1), any(ParameterizedPreparedStatementSetter.class));
+        verify(jdbcTemplate, times(2)).batchUpdate(anyString(), anyList(), anyInt(), any(ParameterizedPreparedStatementSetter.class));
+    }
+
+    private static Map<SeriesBucket, ProcessedMetric> rows(ProcessedMetric metric) {
+        return MetricStoreRepository.latestPerWindow(List.of(metric));
+    }
+
+    private static RollupWriter.Change single(List<RollupWriter.Change> changes) {
+        assertEquals(1, changes.size());
+        return changes.get(0);
+    }
+
+    private static ProcessedMetric counter(long seriesId, Instant window, double value) {
+        return ProcessedMetric.builder()
+                .seriesId(seriesId)
+                .metricName("svc:req_total")
+                .metricType(MetricType.COUNTER)
+                .processedTimestamp(window)
+                .value(value)
+                .build();
+    }
+}
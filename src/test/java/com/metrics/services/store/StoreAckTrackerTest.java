@@ -0,0 +1,69 @@
+package com.metrics.services.store;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StoreAckTrackerTest {
+
+    private final StoreAckTracker tracker = new StoreAckTracker();
+    private final List<Long> acked = new ArrayList<>();
+
+    @Test
+    void acknowledgesOnlyTheStoredPrefix() {
+        Runnable first = tracker.track(0, ack(1));
+        Runnable second = tracker.track(0, ack(2));
+        Runnable third = tracker.track(0, ack(3));
+
+        // A faster lane stores later records first; nothing may be committed yet
+        third.run();
+        second.run();
+        assertTrue(acked.isEmpty());
+
+        first.run();
+        assertEquals(List.of(3L), acked);
+    }
+
+    @Test
+    void partitionsAreTrackedIndependently() {
+        Runnable blocked = tracker.track(0, ack(1));
+        Runnable other = tracker.track(1, ack(10));
+
+        other.run();
+        assertEquals(List.of(10L), acked);
+
+        blocked.run();
+        assertEquals(List.of(10L, 1L), acked);
+    }
+
+    @Test
+    void untrackedRecordDoesNotHoldBackThePrefix() {
+        Runnable first = tracker.track(0, ack(1));
+        Runnable rejected = tracker.track(0, ack(2));
+        tracker.untrack(0, rejected);
+
+        first.run();
+        assertEquals(List.of(1L), acked);
+    }
+
+    @Test
+    void callbacksAfterRevokeAreIgnored() {
+        Runnable first = tracker.track(0, ack(1));
+        tracker.revoke(List.of(0));
+
+        Runnable next = tracker.track(0, ack(5));
+        first.run();
+        assertTrue(acked.isEmpty());
+
+        next.run();
+        assertEquals(List.of(5L), acked);
+    }
+
+    private Acknowledgment ack(long offset) {
+        return () -> acked.add(offset);
+    }
+}
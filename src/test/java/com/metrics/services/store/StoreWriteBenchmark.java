@@ -0,0 +1,133 @@
+package com.metrics.services.store;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.metrics.Benchmark;
+import com.metrics.config.AppConfigStore;
+import com.metrics.models.check.ProcessedMetric;
+import com.metrics.models.common.MetricType;
+import com.metrics.models.common.StoreWriteMode;
+import com.metrics.services.check.SeriesRegistry;
+import com.metrics.services.query.QueryResultCache;
+import com.metrics.utils.TDigestSketch;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import org.testcontainers.utility.MountableFile;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Rows/s written to {@code metric_samples} by {@link MetricStoreRepository#batchInsert},
+ * batched INSERT versus binary COPY, against a TimescaleDB container with the
+ * {@code init.sql} schema. Rollups and the query cache are off, so only the sample write
+ * is measured. Every write mode starts from an empty table.
+ */
+@Tag("benchmark")
+@Testcontainers
+class StoreWriteBenchmark {
+
+    private static final int SERIES = 1_000;
+    // Recent, so the retention and compression policies of init.sql leave the chunks alone
+    private static final Instant BASE = Instant.now().truncatedTo(ChronoUnit.HOURS);
+
+    @Container
+    private static final PostgreSQLContainer<?> timescale = new PostgreSQLContainer<>(
+            DockerImageName.parse("timescale/timescaledb:latest-pg14").asCompatibleSubstituteFor("postgres"))
+            .withCopyFileToContainer(MountableFile.forHostPath("init.sql"), "/docker-entrypoint-initdb.d/init.sql");
+
+    private SingleConnectionDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void connect() {
+        // Same driver settings as application.yml
+        dataSource = new SingleConnectionDataSource(
+                timescale.getJdbcUrl() + "&reWriteBatchedInserts=true",
+                timescale.getUsername(), timescale.getPassword(), true);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @AfterEach
+    void disconnect() {
+        dataSource.destroy();
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {500, 5_000, 50_000})
+    void insertVersusCopy(int batchSize) throws Exception {
+        List<ProcessedMetric> batch = batch(batchSize);
+
+        for (StoreWriteMode mode : new StoreWriteMode[] {StoreWriteMode.INSERT, StoreWriteMode.COPY}) {
+            jdbcTemplate.execute("TRUNCATE metric_samples, series");
+            SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+            MetricStoreRepository repository = repository(mode, meterRegistry);
+
+            Benchmark.measure(mode + ", batch " + batchSize + " (rows)", batchSize, () -> {
+                repository.batchInsert(batch);
+                return null;
+            });
+
+            assertEquals(0, meterRegistry.counter("metrics.store.copy.fallbacks").count());
+            long rows = jdbcTemplate.queryForObject("SELECT count(*) FROM metric_samples", Long.class);
+            assertEquals(0, rows % batchSize);
+        }
+    }
+
+    private MetricStoreRepository repository(StoreWriteMode mode, SimpleMeterRegistry meterRegistry) {
+        AppConfigStore config = new AppConfigStore();
+        config.setStoreWriteMode(mode);
+        config.setStoreSeriesCacheSize(10_000);
+        config.setRollupEnabled(false);
+        config.setQueryCacheEnabled(false);
+        config.setQueryCacheMaxEntries(1);
+
+        return new MetricStoreRepository(
+                jdbcTemplate,
+                new SeriesRegistry(),
+                new RollupWriter(jdbcTemplate, config),
+                new QueryResultCache(null, new ObjectMapper(), config, meterRegistry),
+                new DataSourceTransactionManager(dataSource),
+                config,
+                meterRegistry);
+    }
+
+    // One 10-second window per SERIES samples, each with the sketch of its window
+    private static List<ProcessedMetric> batch(int size) {
+        TDigestSketch sketch = TDigestSketch.create();
+        for (int i = 0; i < 100; i++) {
+            sketch.digest.add(1 + (i * 7919L) % 2_000);
+        }
+        byte[] sketchBytes = sketch.serialize();
+
+        List<ProcessedMetric> batch = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int series = i % SERIES;
+            batch.add(ProcessedMetric.builder()
+                    .seriesId(series + 1L)
+                    .metricName("svc-bench:latency_ms")
+                    .metricType(MetricType.GAUGE)
+                    .processedTimestamp(BASE.plusSeconds(i / SERIES * 10L))
+                    .value(1.0 + i % 2_000)
+                    .labels(JsonNodeFactory.instance.objectNode().put("instance", "i-" + series))
+                    .sketch(sketchBytes)
+                    .build());
+        }
+        return batch;
+    }
+}
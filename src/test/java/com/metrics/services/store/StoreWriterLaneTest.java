@@ -0,0 +1,144 @@
+package com.metrics.services.store;
+
+import com.metrics.models.check.ProcessedMetric;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class StoreWriterLaneTest {
+
+    private static final long POISON = 13;
+
+    private final MetricStoreRepository repository = mock(MetricStoreRepository.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<Long> stored = Collections.synchronizedList(new ArrayList<>());
+    private final List<Long> deadLettered = Collections.synchronizedList(new ArrayList<>());
+    private StoreWriterLane lane;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (lane != null) {
+            lane.stop(Duration.ofSeconds(5));
+        }
+    }
+
+    @Test
+    void poisonMetricIsDeadLetteredAndTheRestOfTheBatchIsStored() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        doAnswer(invocation -> {
+            calls.incrementAndGet();
+            List<ProcessedMetric> batch = invocation.getArgument(0);
+            if (batch.stream().anyMatch(m -> m.getSeriesId() == POISON)) {
+                throw new DataIntegrityViolationException("duplicate key value violates unique constraint \"uq_series_id_ts\"");
+            }
+            batch.forEach(m -> stored.add(m.getSeriesId()));
+            return null;
+        }).when(repository).batchInsert(anyList());
+
+        CountDownLatch acked = new CountDownLatch(20);
+        lane = lane(20, true);
+        lane.start();
+        for (long id = 1; id <= 20; id++) {
+            lane.put(new StoreEntry(metric(id), acked::countDown));
+        }
+
+        // Every entry is acknowledged, the poison one included, so the lane moves on
+        assertTrue(acked.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(POISON), deadLettered);
+        assertEquals(19, stored.size());
+        assertFalse(stored.contains(POISON));
+        // Halving 20 entries isolates one metric in at most 2 * log2(20) + 1 writes
+        assertTrue(calls.get() <= 11, "writes: " + calls.get());
+        assertEquals(1, meterRegistry.counter("metrics.store.dead_lettered", "lane", "0").count());
+
+        // Later batches are written normally
+        CountDownLatch next = new CountDownLatch(1);
+        lane.put(new StoreEntry(metric(21), next::countDown));
+        assertTrue(next.await(5, TimeUnit.SECONDS));
+        assertTrue(stored.contains(21L));
+    }
+
+    @Test
+    void failedDeadLetterStillAcknowledges() throws Exception {
+        doAnswer(invocation -> {
+            throw new BadSqlGrammarException("insert", "INSERT", new SQLException("bad value"));
+        }).when(repository).batchInsert(anyList());
+
+        CountDownLatch acked = new CountDownLatch(1);
+        lane = new StoreWriterLane(0, repository, 10, Duration.ofMillis(20), 100, true, meterRegistry, () -> { },
+                metric -> {
+                    throw new IllegalStateException("broker down");
+                });
+        lane.start();
+        lane.put(new StoreEntry(metric(1), acked::countDown));
+
+        assertTrue(acked.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void transientFailuresAreRetriedWithoutSplitting() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        doAnswer(invocation -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new QueryTimeoutException("canceling statement due to statement timeout");
+            }
+            List<ProcessedMetric> batch = invocation.getArgument(0);
+            batch.forEach(m -> stored.add(m.getSeriesId()));
+            return null;
+        }).when(repository).batchInsert(anyList());
+
+        CountDownLatch acked = new CountDownLatch(3);
+        lane = lane(3, true);
+        lane.start();
+        for (long id = 1; id <= 3; id++) {
+            lane.put(new StoreEntry(metric(id), acked::countDown));
+        }
+
+        assertTrue(acked.await(StoreWriterLane.RETRY_BACKOFF_MS + 5_000, TimeUnit.MILLISECONDS));
+        assertEquals(2, calls.get());
+        assertEquals(List.of(1L, 2L, 3L), stored);
+        assertTrue(deadLettered.isEmpty());
+    }
+
+    @Test
+    void connectionLossIsTransientAndConstraintViolationIsPermanent() {
+        assertFalse(StoreWriterLane.isPermanent(new CannotGetJdbcConnectionException("connection refused")));
+        assertFalse(StoreWriterLane.isPermanent(new QueryTimeoutException("timeout")));
+        assertFalse(StoreWriterLane.isPermanent(new IllegalStateException("no transaction")));
+        assertTrue(StoreWriterLane.isPermanent(new DataIntegrityViolationException("duplicate key")));
+        assertTrue(StoreWriterLane.isPermanent(new BadSqlGrammarException("insert", "INSERT", new SQLException())));
+    }
+
+    private StoreWriterLane lane(int batchSize, boolean durable) {
+        return new StoreWriterLane(0, repository, batchSize, Duration.ofMillis(200), 100, durable, meterRegistry,
+                () -> { }, metric -> deadLettered.add(metric.getSeriesId()));
+    }
+
+    private static ProcessedMetric metric(long seriesId) {
+        return ProcessedMetric.builder()
+                .seriesId(seriesId)
+                .metricName("svc:req_total")
+                .processedTimestamp(Instant.parse("2025-01-01T10:00:00Z"))
+                .value(1.0)
+                .build();
+    }
+}